@@ -0,0 +1,293 @@
+package com.binarysprite.taskbeat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 計測中の状態を保存するチェックポイントです。
+ * 小さなメモリマップドファイルへ状態を書き込み、ディスクへの同期は指定の間隔ごとに限ります。
+ * 書き込みはメモリへの書き込みだけで待機しないため、イベントディスパッチスレッドから呼び出せます。
+ * ディスクへの同期は{@link #flush()}でタイマーのスレッドから行います。
+ * 書き込みの途中で中断された状態は、シーケンス番号により読み込み時に破棄されます。
+ * ファイルは排他ロックで保護し、同じファイルを複数の時計で共有することはできません。
+ *
+ * @author Tabunoki
+ *
+ */
+public class Checkpoint {
+
+	/**
+	 * ファイルの識別子です。
+	 */
+	private static final long MAGIC = 0x54424350L;
+
+	private static final int MAGIC_OFFSET = 0;
+
+	/**
+	 * シーケンス番号の位置です。書き込み中は奇数になります。
+	 */
+	private static final int SEQUENCE_OFFSET = 8;
+
+	private static final int RUNNING_OFFSET = 16;
+
+	private static final int BASE_TIME_OFFSET = 24;
+
+	private static final int STOP_TIME_OFFSET = 32;
+
+	private static final int CHECKPOINT_TIME_OFFSET = 40;
+
+	private static final int FILE_SIZE = 48;
+
+	/**
+	 * このプロセスでロックしているファイルの正規パスです。
+	 * 同じファイルの別のチャンネルを閉じると、プラットフォームによってはロックが解放されるため、
+	 * ロック済みのファイルは開く前に拒否します。
+	 */
+	private static final Set<String> LOCKED_PATHS = new HashSet<String>();
+
+	/**
+	 * 保存された状態です。
+	 * @author Tabunoki
+	 *
+	 */
+	public static class State {
+
+		private final boolean running;
+
+		private final long baseTime;
+
+		private final long stopTime;
+
+		private final long checkpointTime;
+
+		/**
+		 * @param running
+		 * @param baseTime
+		 * @param stopTime
+		 * @param checkpointTime
+		 */
+		public State(boolean running, long baseTime, long stopTime, long checkpointTime) {
+			super();
+			this.running = running;
+			this.baseTime = baseTime;
+			this.stopTime = stopTime;
+			this.checkpointTime = checkpointTime;
+		}
+
+		/**
+		 * @return 計測中であればtrue
+		 */
+		public boolean isRunning() {
+			return this.running;
+		}
+
+		/**
+		 * @return 計測開始の基準時間
+		 */
+		public long getBaseTime() {
+			return this.baseTime;
+		}
+
+		/**
+		 * @return 計測停止の時間
+		 */
+		public long getStopTime() {
+			return this.stopTime;
+		}
+
+		/**
+		 * @return 保存した時間
+		 */
+		public long getCheckpointTime() {
+			return this.checkpointTime;
+		}
+
+		/**
+		 * 保存した時点での通算時間を返します。
+		 * @return 通算時間（ミリ秒）
+		 */
+		public long getTime() {
+			return (this.running ? this.checkpointTime : this.stopTime) - this.baseTime;
+		}
+	}
+
+	/**
+	 * チェックポイントのファイルです。ロックを保持するため開いたままにします。
+	 */
+	private final RandomAccessFile randomAccessFile;
+
+	/**
+	 * 他の時計による使用を防ぐ排他ロックです。
+	 */
+	private final FileLock lock;
+
+	/**
+	 * ファイルをマップしたバッファです。
+	 */
+	private final MappedByteBuffer buffer;
+
+	/**
+	 * ディスクへ同期する最短の間隔（ミリ秒）です。
+	 */
+	private final long forceInterval;
+
+	/**
+	 * 生成時にファイルに保存されていた状態です。
+	 */
+	private final State previous;
+
+	/**
+	 * 最後にディスクへ同期した時間です。
+	 */
+	private long lastForceTime;
+
+	/**
+	 * 最後に書き込んだ計測中の真偽値です。
+	 */
+	private boolean lastRunning;
+
+	/**
+	 * ディスクへ同期していない書き込みがあるかを表す真偽値です。
+	 */
+	private boolean dirty;
+
+	/**
+	 * 次の{@link #flush()}で間隔によらず同期するかを表す真偽値です。
+	 */
+	private boolean urgent;
+
+	/**
+	 * チェックポイントを生成し、保存されていた状態を読み込みます。
+	 * @param file チェックポイントのファイル
+	 * @param forceInterval ディスクへ同期する最短の間隔（ミリ秒）
+	 * @throws IOException ファイルを開けなかった場合、もしくは他の時計が使用している場合
+	 */
+	public Checkpoint(File file, long forceInterval) throws IOException {
+
+		if (file == null) {
+			throw new NullPointerException("file is null.");
+		}
+
+		String path = file.getCanonicalPath();
+		synchronized (LOCKED_PATHS) {
+			if (LOCKED_PATHS.contains(path)) {
+				throw new IOException(file + " is used by another clock.");
+			}
+
+			this.randomAccessFile = new RandomAccessFile(file, "rw");
+			try {
+				FileChannel channel = this.randomAccessFile.getChannel();
+				FileLock lock;
+				try {
+					lock = channel.tryLock();
+				} catch (OverlappingFileLockException e) {
+					lock = null;
+				}
+				if (lock == null) {
+					throw new IOException(file + " is used by another clock.");
+				}
+				this.lock = lock;
+				this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+			} catch (IOException e) {
+				this.randomAccessFile.close();
+				throw e;
+			}
+			LOCKED_PATHS.add(path);
+		}
+		this.forceInterval = forceInterval;
+
+		long sequence = this.buffer.getLong(SEQUENCE_OFFSET);
+		if (this.buffer.getLong(MAGIC_OFFSET) == MAGIC && sequence % 2 == 0) {
+			this.previous = new State(
+					this.buffer.getLong(RUNNING_OFFSET) != 0,
+					this.buffer.getLong(BASE_TIME_OFFSET),
+					this.buffer.getLong(STOP_TIME_OFFSET),
+					this.buffer.getLong(CHECKPOINT_TIME_OFFSET));
+		} else {
+			this.previous = null;
+			this.buffer.putLong(MAGIC_OFFSET, MAGIC);
+			this.buffer.putLong(SEQUENCE_OFFSET, 0);
+		}
+	}
+
+	/**
+	 * 生成時にファイルに保存されていた状態が計測中であれば、その状態を返します。
+	 * @return 中断された状態、ない場合はnull
+	 */
+	public State getInterrupted() {
+
+		return this.previous != null && this.previous.isRunning() ? this.previous : null;
+	}
+
+	/**
+	 * 状態を書き込みます。ディスクへは同期しません。
+	 * 計測中の状態が変わった場合は、次の{@link #flush()}で同期します。
+	 * @param running 計測中であればtrue
+	 * @param baseTime 計測開始の基準時間
+	 * @param stopTime 計測停止の時間
+	 */
+	public synchronized void write(boolean running, long baseTime, long stopTime) {
+
+		long now = System.currentTimeMillis();
+		long sequence = this.buffer.getLong(SEQUENCE_OFFSET);
+
+		this.buffer.putLong(SEQUENCE_OFFSET, sequence + 1);
+		this.buffer.putLong(RUNNING_OFFSET, running ? 1 : 0);
+		this.buffer.putLong(BASE_TIME_OFFSET, baseTime);
+		this.buffer.putLong(STOP_TIME_OFFSET, stopTime);
+		this.buffer.putLong(CHECKPOINT_TIME_OFFSET, now);
+		this.buffer.putLong(SEQUENCE_OFFSET, sequence + 2);
+		this.dirty = true;
+
+		if (running != this.lastRunning) {
+			this.urgent = true;
+		}
+		this.lastRunning = running;
+	}
+
+	/**
+	 * 計測中の状態が変わった場合、もしくは前回の同期から指定の間隔が経過した場合に、
+	 * 同期していない書き込みをディスクへ同期します。
+	 */
+	public void flush() {
+
+		this.force(false);
+	}
+
+	/**
+	 * 同期していない書き込みをディスクへ同期します。
+	 */
+	public void force() {
+
+		this.force(true);
+	}
+
+	/**
+	 * 同期していない書き込みをディスクへ同期します。
+	 * 同期はロックを保持せずに行うため、同期中も{@link #write(boolean, long, long)}は待機しません。
+	 * 同期中の書き込みは次の同期の対象となります。
+	 * @param always 間隔によらず同期する場合はtrue
+	 */
+	private void force(boolean always) {
+
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			if (this.dirty == false
+					|| (always == false && this.urgent == false && now - this.lastForceTime < this.forceInterval)) {
+				return;
+			}
+			this.lastForceTime = now;
+			this.dirty = false;
+			this.urgent = false;
+		}
+
+		this.buffer.force();
+	}
+}
@@ -12,17 +12,19 @@ import java.awt.event.ComponentEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintStream;
-import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.ExecutionException;
 
 import javax.swing.JButton;
@@ -53,6 +55,11 @@ public class Clock {
 	 */
 	private final JProgressBar progressBar = new JProgressBar();
 	
+	/**
+	 * 日ごとの通算時間の履歴を表示するパネルです。無効の場合はnullです。
+	 */
+	private final HistoryPanel historyPanel;
+	
 	/**
 	 * 表示色の設定です。
 	 */
@@ -73,20 +80,45 @@ public class Clock {
 			Integer.parseInt(ClockProperties.RUNNING_BACKGROUND_COLOR_G.get()),
 			Integer.parseInt(ClockProperties.RUNNING_BACKGROUND_COLOR_B.get()));
 	
+	/**
+	 * 終了時に未配信の値の配信を待つ最大時間です。
+	 */
+	private static final long SHUTDOWN_TIMEOUT = 5000;
+	
 	/**
 	 * 計測開始の基準時間です。
 	 */
-	private long baseTime;
+	private volatile long baseTime;
 	
 	/**
 	 * 計測停止の時間です。
 	 */
-	private long stopTime;
+	private volatile long stopTime;
 	
 	/**
 	 * 計測中を表す真偽値です。
 	 */
-	private boolean running;
+	private volatile boolean running;
+	
+	/**
+	 * 計測中のタスク名です。
+	 */
+	private volatile String task = "テスト";
+	
+	/**
+	 * タスク名を表示するラベルです。
+	 */
+	private final JLabel taskLabel = new JLabel(task);
+	
+	/**
+	 * スクリプトなどから時計を操作するための制御サーバーです。無効の場合はnullです。
+	 */
+	private ControlServer controlServer;
+	
+	/**
+	 * ローカルの記録とはてなグラフを同期するエンジンです。無効の場合はnullです。
+	 */
+	private SyncEngine syncEngine;
 	
 	/**
 	 * はてなグラフと通信を行うAPIオブジェクトです。
@@ -95,9 +127,25 @@ public class Clock {
 			ClockProperties.USERNAME.get(), ClockProperties.PASSWORD.get());
 	
 	/**
-	 * 日付表示用のフォーマットです。
+	 * 計測した値を各登録先へ配信するディスパッチャーです。
 	 */
-	private final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+	private final GraphDispatcher graphDispatcher = new GraphDispatcher(
+			ClockProperties.SINK_QUEUE_CAPACITY.getInt(256));
+	
+	/**
+	 * 他のプロセスと共有する日ごとの通算時間です。共有しない場合、もしくは共有できない場合はnullです。
+	 */
+	private final SharedDailyTotal sharedDailyTotal = createSharedDailyTotal();
+	
+	/**
+	 * 計測中の状態を保存するチェックポイントです。無効の場合はnullです。
+	 */
+	private final Checkpoint checkpoint = createCheckpoint();
+	
+	/**
+	 * 共有の通算時間の登録などを定期的に行うタイマーです。
+	 */
+	private final Timer timer = new Timer("Clock-Timer", true);
 	
 	/**
 	 * 時刻表示用のフォーマットです。
@@ -110,6 +158,16 @@ public class Clock {
 	 *
 	 */
 	private class Initialize extends SwingWorker<Long, Long> {
+		
+		/**
+		 * 中断された計測を再開するかを表す真偽値です。
+		 */
+		private boolean resume;
+		
+		/**
+		 * はてなグラフから取得した履歴です。取得できなかった場合はnullです。
+		 */
+		private SortedMap<String, Double> values;
 
 		/* (non-Javadoc)
 		 * @see org.jdesktop.swingworker.SwingWorker#doInBackground()
@@ -120,11 +178,55 @@ public class Clock {
 			Date now = new Date();
 			
 			stopTime = now.getTime();
-			baseTime = (long) (stopTime - hatenaGraph.getValue(now, ClockProperties.GRAPH_NAME.get()) * 1000.0d);
+			
+			try {
+				values = hatenaGraph.getValues(ClockProperties.GRAPH_NAME.get());
+			} catch (IOException e) {
+				Log.warn("Failed to get the graph: {0}", e);
+				values = null;
+			}
+			Double value = values == null ? null : values.get(new SimpleDateFormat("yyyy-MM-dd").format(now));
+			
+			long time = value == null ? 0 : (long) (value.doubleValue() * 1000.0d);
+			if (sharedDailyTotal != null) {
+				time = sharedDailyTotal.seed(SharedDailyTotal.toEpochDay(stopTime), time);
+			}
+			
+			Checkpoint.State interrupted = checkpoint == null ? null : checkpoint.getInterrupted();
+			if (interrupted != null) {
+				
+				long interruptedTime = interrupted.getTime();
+				long interruptedDay = SharedDailyTotal.toEpochDay(interrupted.getCheckpointTime());
+				
+				if (interruptedDay != SharedDailyTotal.toEpochDay(stopTime)) {
+					if (sharedDailyTotal != null) {
+						sharedDailyTotal.seed(interruptedDay, 0);
+					}
+					new Record(new Date(interrupted.getCheckpointTime()), interruptedTime).execute();
+					
+				} else if (time < interruptedTime) {
+					time = interruptedTime;
+					new Record(new Date(stopTime), interruptedTime).execute();
+				}
+				
+				resume = "resume".equalsIgnoreCase(ClockProperties.CHECKPOINT_RECOVERY.get());
+				
+				Log.info("Interrupted session found.\n\tBase Time: {0,date,yyyy-MM-dd HH:mm:ss}\n\tCheckpoint Time: {1,date,yyyy-MM-dd HH:mm:ss}\n\tRecovery: {2}",
+						interrupted.getBaseTime(), interrupted.getCheckpointTime(), resume ? "resume" : "close");
+			}
+			
+			baseTime = stopTime - time;
 			
 			new Update().execute();
 			
-			logTime("Initialised.", System.out);
+			/*
+			 * グラフを取得できなかった場合は差分同期だけを行います。
+			 */
+			if (syncEngine != null) {
+				new Synchronize(values).execute();
+			}
+			
+			logTime("Initialised.");
 			
 			return null;
 		}
@@ -137,6 +239,26 @@ public class Clock {
 			monitor.setForeground(WAITING_FOREGROUND_COLOR);
 			monitor.setBackground(WAITING_BACKGROUND_COLOR);
 			progressBar.setVisible(false);
+			
+			if (historyPanel != null && values != null) {
+				historyPanel.setValues(values);
+			}
+			
+			if (checkpoint != null) {
+				long interval = Math.max(1, ClockProperties.CHECKPOINT_INTERVAL.getLong(1000));
+				checkpoint.write(running, baseTime, stopTime);
+				timer.schedule(new TimerTask() {
+					@Override
+					public void run() {
+						checkpoint.write(running, baseTime, stopTime);
+						checkpoint.flush();
+					}
+				}, interval, interval);
+			}
+			
+			if (resume) {
+				action();
+			}
 		}
 		
 	}
@@ -218,9 +340,7 @@ public class Clock {
 			
 			this.publish(time);
 			
-			hatenaGraph.post(ClockProperties.GRAPH_NAME.get(), date, time / 1000.0d);
-			
-			return null;
+			return record(date, time);
 		}
 
 		/* (non-Javadoc)
@@ -236,6 +356,19 @@ public class Clock {
 				monitor.setBackground(WAITING_BACKGROUND_COLOR);
 			}
 			progressBar.setVisible(false);
+			
+			try {
+				long total = this.get();
+				
+				if (historyPanel != null) {
+					historyPanel.put(new SimpleDateFormat("yyyy-MM-dd").format(date), total / 1000.0d);
+				}
+				
+			} catch (InterruptedException e) {
+				Log.debug("Recording interrupted: {0}", e);
+			} catch (ExecutionException e) {
+				Log.error("Failed to record the time.", e.getCause());
+			}
 		}
 
 		/* (non-Javadoc)
@@ -249,6 +382,134 @@ public class Clock {
 	}
 	
 	
+	/**
+	 * ローカルの記録とはてなグラフを同期するタスククラスです。
+	 * @author Tabunoki
+	 *
+	 */
+	private class Synchronize extends SwingWorker<Integer, Long> {
+		
+		/**
+		 * 取得済みのグラフのデータです。差分同期の場合はnullです。
+		 */
+		private final SortedMap<String, Double> values;
+
+		/**
+		 * @param values
+		 */
+		public Synchronize(SortedMap<String, Double> values) {
+			super();
+			this.values = values;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.jdesktop.swingworker.SwingWorker#doInBackground()
+		 */
+		@Override
+		protected Integer doInBackground() throws Exception {
+			
+			if (this.values == null) {
+				return syncEngine.synchronizeIncrementally();
+			} else {
+				return syncEngine.synchronize(this.values);
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see org.jdesktop.swingworker.SwingWorker#done()
+		 */
+		@Override
+		protected void done() {
+			
+			try {
+				this.get();
+			} catch (InterruptedException e) {
+				Log.debug("Synchronization interrupted: {0}", e);
+			} catch (ExecutionException e) {
+				Log.error("Failed to synchronize.", e.getCause());
+			}
+		}
+		
+	}
+	
+	/**
+	 * 制御サーバーからの操作をイベントディスパッチスレッドで実行するクラスです。
+	 * @author Tabunoki
+	 *
+	 */
+	private class Control implements ClockControl {
+
+		/* (non-Javadoc)
+		 * @see com.binarysprite.taskbeat.ClockControl#start()
+		 */
+		public void start() {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					if (running == false) {
+						action();
+					}
+				}
+			});
+		}
+
+		/* (non-Javadoc)
+		 * @see com.binarysprite.taskbeat.ClockControl#stop()
+		 */
+		public void stop() {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					if (running) {
+						action();
+					}
+				}
+			});
+		}
+
+		/* (non-Javadoc)
+		 * @see com.binarysprite.taskbeat.ClockControl#toggle()
+		 */
+		public void toggle() {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					action();
+				}
+			});
+		}
+
+		/* (non-Javadoc)
+		 * @see com.binarysprite.taskbeat.ClockControl#switchTask(java.lang.String)
+		 */
+		public void switchTask(final String name) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					task = name;
+					taskLabel.setText(name);
+					fireEvent();
+				}
+			});
+		}
+
+		/* (non-Javadoc)
+		 * @see com.binarysprite.taskbeat.ClockControl#synchronize()
+		 */
+		public boolean synchronize() {
+			if (syncEngine == null) {
+				return false;
+			}
+			new Synchronize(null).execute();
+			return true;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.binarysprite.taskbeat.ClockControl#getStatus()
+		 */
+		public String getStatus() {
+			return Clock.this.getStatus();
+		}
+		
+	}
+	
+	
 	/**
 	 * プログラマークロックを起動します。
 	 * @param args
@@ -295,12 +556,21 @@ public class Clock {
 		}
 		final Font monitorFont = tempFont;
 		
+		final int historyHeight = ClockProperties.HISTORY_HEIGHT.getInt(0);
+		if (historyHeight > 0) {
+			historyPanel = new HistoryPanel(
+					ClockProperties.HISTORY_DAY_WIDTH.getInt(3), RUNNING_BACKGROUND_COLOR);
+			historyPanel.setOpaque(true);
+			historyPanel.setBackground(WAITING_BACKGROUND_COLOR);
+		} else {
+			historyPanel = null;
+		}
+		
 		/*
 		 * コンポーネントの生成
 		 */
 		final JFrame frame = new JFrame();
 		final Container container = frame.getContentPane();
-		final JLabel taskLabel = new JLabel("テスト");
 		
 		/*
 		 * コンポーネントの編集
@@ -339,14 +609,21 @@ public class Clock {
 		
 
 		layout.putConstraint(SpringLayout.EAST, monitor, 0, SpringLayout.EAST, container);
-		layout.putConstraint(SpringLayout.SOUTH, monitor, 0, SpringLayout.SOUTH, container);
+		layout.putConstraint(SpringLayout.SOUTH, monitor, -historyHeight, SpringLayout.SOUTH, container);
 		layout.putConstraint(SpringLayout.WEST, monitor, 0, SpringLayout.WEST, container);
 		layout.putConstraint(SpringLayout.NORTH, monitor, 0, SpringLayout.NORTH, container);
 		
 		layout.putConstraint(SpringLayout.EAST, progressBar, -20, SpringLayout.EAST, container);
-		layout.putConstraint(SpringLayout.SOUTH, progressBar, -10, SpringLayout.SOUTH, container);
+		layout.putConstraint(SpringLayout.SOUTH, progressBar, -10, SpringLayout.SOUTH, monitor);
 		layout.putConstraint(SpringLayout.WEST, progressBar, 20, SpringLayout.WEST, container);
-		layout.putConstraint(SpringLayout.NORTH, progressBar, -50, SpringLayout.SOUTH, container);
+		layout.putConstraint(SpringLayout.NORTH, progressBar, -50, SpringLayout.SOUTH, monitor);
+		
+		if (historyPanel != null) {
+			layout.putConstraint(SpringLayout.EAST, historyPanel, 0, SpringLayout.EAST, container);
+			layout.putConstraint(SpringLayout.SOUTH, historyPanel, 0, SpringLayout.SOUTH, container);
+			layout.putConstraint(SpringLayout.WEST, historyPanel, 0, SpringLayout.WEST, container);
+			layout.putConstraint(SpringLayout.NORTH, historyPanel, 0, SpringLayout.SOUTH, monitor);
+		}
 		
 		container.setLayout(layout);
 		
@@ -357,6 +634,9 @@ public class Clock {
 		container.add(taskLabel);
 		container.add(progressBar);
 		container.add(monitor);
+		if (historyPanel != null) {
+			container.add(historyPanel);
+		}
 		
 		/*
 		 * フレームの編集
@@ -371,6 +651,36 @@ public class Clock {
 			
 			@Override
 			public void windowClosed(WindowEvent e) {
+				if (controlServer != null) {
+					controlServer.close();
+				}
+				timer.cancel();
+				if (running) {
+					/*
+					 * 正常な終了を中断として扱わないよう、計測を停止して記録します。
+					 */
+					stopTime = System.currentTimeMillis();
+					running = false;
+					try {
+						record(new Date(stopTime), stopTime - baseTime);
+					} catch (IOException exception) {
+						Log.error("Failed to record the time.", exception);
+					}
+					logTime("Stop.");
+				}
+				if (checkpoint != null) {
+					checkpoint.write(running, baseTime, stopTime);
+					checkpoint.force();
+				}
+				if (sharedDailyTotal != null) {
+					flushSharedDailyTotal();
+					try {
+						sharedDailyTotal.release();
+					} catch (IOException exception) {
+						Log.error("Failed to release the shared daily total.", exception);
+					}
+				}
+				graphDispatcher.shutdown(SHUTDOWN_TIMEOUT);
 				System.exit(0);
 			}
 		});
@@ -379,6 +689,89 @@ public class Clock {
 		frame.setLocationRelativeTo(null);
 		frame.setVisible(true);
 		
+		/*
+		 * 登録先の設定
+		 */
+		if (isSet(ClockProperties.SINK_FILE.get())) {
+			FileGraphSink fileGraphSink = new FileGraphSink(
+					new File(ClockProperties.BASEDIR, ClockProperties.SINK_FILE.get()));
+			graphDispatcher.addSink(fileGraphSink);
+			
+			if (ClockProperties.SINK_HATENA.getBoolean(true)) {
+				syncEngine = new SyncEngine(ClockProperties.GRAPH_NAME.get(), fileGraphSink, hatenaGraph,
+						new File(ClockProperties.BASEDIR, isSet(ClockProperties.SYNC_STATE.get())
+								? ClockProperties.SYNC_STATE.get() : "sync.properties"),
+						ClockProperties.SYNC_BATCH_SIZE.getInt(20),
+						ClockProperties.SYNC_BATCH_INTERVAL.getLong(1000));
+			}
+		}
+		if (ClockProperties.SINK_HATENA.getBoolean(true)) {
+			/*
+			 * 同期が有効な場合は、登録した値を同期済みとして記録する登録先を通します。
+			 */
+			graphDispatcher.addSink(syncEngine != null ? syncEngine.createRemoteSink() : hatenaGraph);
+		}
+		if (isSet(ClockProperties.SINK_TEAM_HOST.get())) {
+			if (isSet(ClockProperties.TEAM_NAME.get()) == false || isSet(ClockProperties.USERNAME.get()) == false) {
+				Log.error("TEAM_NAME and USERNAME are required for the team sink.");
+			} else {
+				try {
+					graphDispatcher.addSink(new TeamGraphSink(
+							ClockProperties.SINK_TEAM_HOST.get(),
+							ClockProperties.SINK_TEAM_PORT.getInt(8126),
+							ClockProperties.TEAM_NAME.get(),
+							ClockProperties.USERNAME.get()));
+				} catch (IOException e) {
+					Log.error("Failed to open the team sink.", e);
+				}
+			}
+		}
+		if (isSet(ClockProperties.SINK_UDP_HOST.get())) {
+			try {
+				graphDispatcher.addSink(new UdpGraphSink(
+						ClockProperties.SINK_UDP_HOST.get(),
+						ClockProperties.SINK_UDP_PORT.getInt(8125)));
+			} catch (IOException e) {
+				Log.error("Failed to open the UDP sink.", e);
+			}
+		}
+		
+		long statusInterval = ClockProperties.SINK_STATUS_INTERVAL.getLong(600000);
+		if (statusInterval > 0) {
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					graphDispatcher.logStatus();
+				}
+			}, statusInterval, statusInterval);
+		}
+		
+		if (sharedDailyTotal != null) {
+			long interval = getSharedFlushInterval();
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					flushSharedDailyTotal();
+				}
+			}, interval, interval);
+		}
+		
+		/*
+		 * 制御サーバーの起動
+		 */
+		if (isSet(ClockProperties.CONTROL_PORT.get())) {
+			int port = ClockProperties.CONTROL_PORT.getInt(-1);
+			if (port < 0 || port > 65535) {
+				Log.error("Invalid CONTROL_PORT: {0}", ClockProperties.CONTROL_PORT.get());
+			} else {
+				try {
+					controlServer = new ControlServer(port, new Control());
+				} catch (IOException e) {
+					Log.error("Failed to start the control server.", e);
+				}
+			}
+		}
+		
 		/*
 		 * 
 		 */
@@ -402,7 +795,9 @@ public class Clock {
 			
 			new Record(new Date(this.stopTime), this.stopTime - this.baseTime).execute();
 			
-			this.logTime("Stop.", System.out);
+			this.writeCheckpoint();
+			this.logTime("Stop.");
+			this.fireEvent();
 			
 		} else {
 			
@@ -429,7 +824,32 @@ public class Clock {
 				}
 			}).start();
 			
-			this.logTime("Start.", System.out);
+			this.writeCheckpoint();
+			this.logTime("Start.");
+			this.fireEvent();
+		}
+	}
+	
+	/**
+	 * 現在の状態を1行の文字列で返します。
+	 * @return 状態
+	 */
+	private String getStatus() {
+		
+		long time = ((this.running ? System.currentTimeMillis() : this.stopTime) - this.baseTime) / 1000;
+		
+		return String.format("%s %02d:%02d:%02d %s",
+				this.running ? "RUNNING" : "WAITING",
+				time / 3600, time % 3600 / 60, time % 3600 % 60, this.task);
+	}
+	
+	/**
+	 * 制御サーバーの購読者へ現在の状態を通知します。
+	 */
+	private void fireEvent() {
+		
+		if (this.controlServer != null) {
+			this.controlServer.fireEvent(this.getStatus());
 		}
 	}
 	
@@ -447,28 +867,128 @@ public class Clock {
 		calendar.set(Calendar.MINUTE, 0);
 		calendar.set(Calendar.SECOND, 0);
 		
-//		System.out.println("border: " + this.dateFormat.format(calendar.getTime()));
+//		Log.debug("border: {0,date,yyyy-MM-dd HH:mm:ss}", calendar.getTime());
 		
 		return calendar.getTimeInMillis();
 	}
 	
 	/**
-	 * ログを出力します。
-	 * @param message
-	 * @param stream
+	 * 共有の通算時間を生成します。
+	 * 既定のディレクトリは同期ツールの対象とならないよう、ホスト固有の一時ディレクトリです。
+	 * @return 共有の通算時間、共有しない場合もしくは共有できない場合はnull
+	 */
+	private static SharedDailyTotal createSharedDailyTotal() {
+		
+		if (ClockProperties.SHARED_TOTAL.getBoolean(true) == false) {
+			return null;
+		}
+		
+		File directory = isSet(ClockProperties.SHARED_DIR.get())
+				? new File(ClockProperties.SHARED_DIR.get())
+				: new File(System.getProperty("java.io.tmpdir"), "taskbeat-" + System.getProperty("user.name"));
+		
+		try {
+			return new SharedDailyTotal(directory, ClockProperties.GRAPH_NAME.get(),
+					getSharedFlushInterval() * 3);
+			
+		} catch (IOException e) {
+			Log.error("Failed to open the shared daily total.", e);
+			return null;
+		}
+	}
+	
+	/**
+	 * 共有の通算時間を登録する間隔を返します。設定がない場合、もしくは正しくない場合は既定値です。
+	 * @return 登録の間隔（ミリ秒）
+	 */
+	private static long getSharedFlushInterval() {
+		
+		long interval = ClockProperties.SHARED_FLUSH_INTERVAL.getLong(10000);
+		return interval > 0 ? interval : 10000;
+	}
+	
+	/**
+	 * チェックポイントを生成します。
+	 * @return チェックポイント、無効の場合はnull
+	 */
+	private static Checkpoint createCheckpoint() {
+		
+		if (isSet(ClockProperties.CHECKPOINT_FILE.get()) == false) {
+			return null;
+		}
+		
+		try {
+			return new Checkpoint(new File(ClockProperties.BASEDIR, ClockProperties.CHECKPOINT_FILE.get()),
+					ClockProperties.CHECKPOINT_FORCE_INTERVAL.getLong(30000));
+			
+		} catch (IOException e) {
+			Log.warn("Checkpointing is disabled: {0}", e);
+			return null;
+		}
+	}
+	
+	/**
+	 * 現在の状態をチェックポイントへ保存します。
 	 */
-	private void logTime(String message, PrintStream stream) {
+	private void writeCheckpoint() {
 		
-		StringBuffer buffer = new StringBuffer(message);
+		if (this.checkpoint != null) {
+			this.checkpoint.write(this.running, this.baseTime, this.stopTime);
+		}
+	}
+	
+	/**
+	 * 時計の時間を登録先へ配信します。共有の通算時間がある場合はそれに加算して配信します。
+	 * @param date 日付
+	 * @param time 時間（ミリ秒）
+	 * @return 当日の通算時間（ミリ秒）
+	 * @throws IOException 共有の通算時間を更新できなかった場合
+	 */
+	private long record(Date date, long time) throws IOException {
+		
+		if (sharedDailyTotal == null) {
+			graphDispatcher.publish(ClockProperties.GRAPH_NAME.get(), date, time / 1000.0d);
+			return time;
+		}
+		
+		long total = sharedDailyTotal.record(SharedDailyTotal.toEpochDay(date.getTime()), time);
+		flushSharedDailyTotal();
+		
+		return total;
+	}
+	
+	/**
+	 * 書き込み権を獲得できた場合、未登録の共有の通算時間を登録先へ配信します。
+	 */
+	private void flushSharedDailyTotal() {
 		
-		buffer.append("\n");
-		buffer.append("\tBase Time: ");
-		buffer.append(dateFormat.format(new Date(this.baseTime)));
-		buffer.append("\n");
-		buffer.append("\tStop Time: ");
-		buffer.append(dateFormat.format(new Date(this.stopTime)));
-		buffer.append("\n");
+		try {
+			for (SharedDailyTotal.Total total : sharedDailyTotal.poll()) {
+				graphDispatcher.publish(ClockProperties.GRAPH_NAME.get(),
+						SharedDailyTotal.toDate(total.getEpochDay()), total.getTime() / 1000.0d);
+			}
+		} catch (IOException e) {
+			Log.error("Failed to flush the shared daily total.", e);
+		}
+	}
+	
+	/**
+	 * 設定値が空でないかを返します。
+	 * @param value
+	 * @return
+	 */
+	private static boolean isSet(String value) {
+		
+		return value != null && value.trim().length() > 0;
+	}
+	
+	/**
+	 * ログを出力します。
+	 * @param message
+	 */
+	private void logTime(String message) {
 		
-		stream.print(buffer.toString());
+		Log.info("{0}\n\tBase Time: {1,date,yyyy-MM-dd HH:mm:ss}\n\tStop Time: {2,date,yyyy-MM-dd HH:mm:ss}",
+				message, this.baseTime, this.stopTime);
 	}
 }
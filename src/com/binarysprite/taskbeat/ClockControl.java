@@ -0,0 +1,44 @@
+package com.binarysprite.taskbeat;
+
+/**
+ * 外部から時計を操作するためのインターフェースです。
+ * 各メソッドは制御サーバーのスレッドから呼び出されるため、待機せずに戻る必要があります。
+ * 
+ * @author Tabunoki
+ *
+ */
+public interface ClockControl {
+	
+	/**
+	 * 計測を開始します。計測中の場合は何もしません。
+	 */
+	void start();
+	
+	/**
+	 * 計測を停止します。停止中の場合は何もしません。
+	 */
+	void stop();
+	
+	/**
+	 * 計測を開始、もしくは停止します。
+	 */
+	void toggle();
+	
+	/**
+	 * 計測中のタスクを切り替えます。
+	 * @param task タスク名
+	 */
+	void switchTask(String task);
+	
+	/**
+	 * ローカルの記録とグラフを差分同期します。
+	 * @return 同期を開始した場合はtrue、同期が無効の場合はfalse
+	 */
+	boolean synchronize();
+	
+	/**
+	 * 現在の状態を1行の文字列で返します。
+	 * @return 状態
+	 */
+	String getStatus();
+}
@@ -22,10 +22,51 @@ public enum ClockProperties {
 	WINDOW_WIDTH,
 	WINDOW_HEIGHT,
 	
+	HISTORY_HEIGHT,
+	HISTORY_DAY_WIDTH,
+	
 	USERNAME,
 	PASSWORD,
 	GRAPH_NAME,
 	
+	SINK_QUEUE_CAPACITY,
+	SINK_STATUS_INTERVAL,
+	SINK_HATENA,
+	SINK_FILE,
+	SINK_UDP_HOST,
+	SINK_UDP_PORT,
+	SINK_TEAM_HOST,
+	SINK_TEAM_PORT,
+	TEAM_NAME,
+	
+	SYNC_STATE,
+	SYNC_BATCH_SIZE,
+	SYNC_BATCH_INTERVAL,
+	
+	CONTROL_PORT,
+	
+	TEAM_SERVER_ADDRESS,
+	TEAM_SERVER_UDP_PORT,
+	TEAM_SERVER_HTTP_PORT,
+	TEAM_SERVER_INTERVAL,
+	TEAM_SERVER_MAX_POSTS,
+	TEAM_GRAPH_NAME,
+	
+	CHECKPOINT_FILE,
+	CHECKPOINT_INTERVAL,
+	CHECKPOINT_FORCE_INTERVAL,
+	CHECKPOINT_RECOVERY,
+	
+	SHARED_TOTAL,
+	SHARED_DIR,
+	SHARED_FLUSH_INTERVAL,
+	
+	LOG_FILE,
+	LOG_LEVEL,
+	LOG_MAX_SIZE,
+	LOG_BACKUPS,
+	LOG_CONSOLE,
+	
 	WAITING_FOREGROUND_COLOR_R,
 	WAITING_FOREGROUND_COLOR_G,
 	WAITING_FOREGROUND_COLOR_B,
@@ -61,9 +102,9 @@ public enum ClockProperties {
 		
 		BASEDIR = propertiesFile.getParent();
 		
-		System.out.println("ユーザーディレクトリ: " + System.getProperty("user.dir"));
-		System.out.println("システムディレクトリ: " + ClassLoader.getSystemResource("./META-INF").getPath());
-		System.out.println("プロパティファイル: " + propertiesFile.getAbsolutePath());
+		Log.info("ユーザーディレクトリ: {0}", System.getProperty("user.dir"));
+		Log.info("システムディレクトリ: {0}", ClassLoader.getSystemResource("./META-INF").getPath());
+		Log.info("プロパティファイル: {0}", propertiesFile.getAbsolutePath());
 		
 		PROPERTIES = new Properties();
 		
@@ -95,4 +136,44 @@ public enum ClockProperties {
 	public void set(String value) {
 		PROPERTIES.setProperty(this.toString(), value);
 	}
+	
+	/**
+	 * 整数の設定値を返します。設定がない場合や形式が正しくない場合は既定値を返します。
+	 * @param defaultValue 既定値
+	 * @return 設定値
+	 */
+	public int getInt(int defaultValue) {
+		
+		try {
+			return Integer.parseInt(this.get().trim());
+		} catch (RuntimeException e) {
+			return defaultValue;
+		}
+	}
+	
+	/**
+	 * 整数の設定値を返します。設定がない場合や形式が正しくない場合は既定値を返します。
+	 * @param defaultValue 既定値
+	 * @return 設定値
+	 */
+	public long getLong(long defaultValue) {
+		
+		try {
+			return Long.parseLong(this.get().trim());
+		} catch (RuntimeException e) {
+			return defaultValue;
+		}
+	}
+	
+	/**
+	 * 真偽値の設定値を返します。設定がない場合は既定値を返します。
+	 * @param defaultValue 既定値
+	 * @return 設定値
+	 */
+	public boolean getBoolean(boolean defaultValue) {
+		
+		String value = this.get();
+		
+		return value != null && value.trim().length() > 0 ? Boolean.parseBoolean(value.trim()) : defaultValue;
+	}
 }
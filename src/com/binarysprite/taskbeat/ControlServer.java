@@ -0,0 +1,375 @@
+package com.binarysprite.taskbeat;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * スクリプトやIDEから時計を操作するための制御サーバーです。
+ * ループバックアドレスで待ち受け、ひとつのセレクタースレッドですべての接続を処理します。
+ * 1行にひとつのコマンドを受け付け、1行で応答します。
+ * 長すぎる行は次の改行まで読み捨て、コマンドとして実行しません。
+ * <ul>
+ * <li>start … 計測を開始します。</li>
+ * <li>stop … 計測を停止します。</li>
+ * <li>toggle … 計測を開始、もしくは停止します。</li>
+ * <li>task タスク名 … タスクを切り替えます。</li>
+ * <li>status … 現在の状態を返します。</li>
+ * <li>sync … ローカルの記録とグラフを差分同期します。</li>
+ * <li>subscribe … 以降、状態の変化を「EVENT 状態」の行で通知します。</li>
+ * <li>quit … 接続を閉じます。</li>
+ * </ul>
+ *
+ * @author Tabunoki
+ *
+ */
+public class ControlServer implements Runnable {
+
+	/**
+	 * 通信の文字エンコードです。
+	 */
+	public static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * 1行の最大の長さ（バイト）です。
+	 */
+	private static final int MAX_LINE = 1024;
+
+	/**
+	 * 購読者ごとに送信を待つ通知の最大件数です。超えた通知は破棄します。
+	 */
+	private static final int MAX_PENDING_EVENTS = 64;
+
+	/**
+	 * 接続ごとの状態です。
+	 * @author Tabunoki
+	 *
+	 */
+	private static class Connection {
+
+		private final ByteBuffer input = ByteBuffer.allocate(MAX_LINE);
+
+		private final Queue<ByteBuffer> output = new LinkedList<ByteBuffer>();
+
+		private boolean subscribed;
+
+		private boolean closing;
+
+		/**
+		 * 長すぎる行の残りを次の改行まで読み捨てているかを表す真偽値です。
+		 */
+		private boolean discarding;
+	}
+
+	/**
+	 * 時計の操作先です。
+	 */
+	private final ClockControl control;
+
+	/**
+	 * 接続を監視するセレクターです。
+	 */
+	private final Selector selector;
+
+	/**
+	 * 待ち受けのチャンネルです。
+	 */
+	private final ServerSocketChannel serverChannel;
+
+	/**
+	 * 購読者へ通知する状態の変化です。
+	 */
+	private final Queue<String> events = new ConcurrentLinkedQueue<String>();
+
+	/**
+	 * セレクタースレッドです。
+	 */
+	private final Thread thread;
+
+	/**
+	 * 制御サーバーを生成し、待ち受けを開始します。
+	 * @param port 待ち受けるポート番号
+	 * @param control 時計の操作先
+	 * @throws IOException 待ち受けを開始できなかった場合
+	 */
+	public ControlServer(int port, ClockControl control) throws IOException {
+
+		if (control == null) {
+			throw new NullPointerException("control is null.");
+		}
+
+		this.control = control;
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.socket().setReuseAddress(true);
+		this.serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+		this.serverChannel.configureBlocking(false);
+		this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+
+		this.thread = new Thread(this, "ControlServer");
+		this.thread.setDaemon(true);
+		this.thread.start();
+
+		Log.info("Control server is listening on {0}.", this.serverChannel.socket().getLocalSocketAddress());
+	}
+
+	/**
+	 * 購読者へ状態の変化を通知します。このメソッドは待機しません。
+	 * @param status 状態
+	 */
+	public void fireEvent(String status) {
+
+		this.events.add("EVENT " + status);
+		this.selector.wakeup();
+	}
+
+	/**
+	 * 制御サーバーを停止します。
+	 */
+	public void close() {
+
+		this.thread.interrupt();
+		this.selector.wakeup();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+
+		try {
+			while (Thread.currentThread().isInterrupted() == false) {
+
+				this.selector.select();
+
+				this.dispatchEvents();
+
+				Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator();
+				while (iterator.hasNext()) {
+					SelectionKey key = iterator.next();
+					iterator.remove();
+
+					try {
+						if (key.isValid() && key.isAcceptable()) {
+							this.accept();
+						}
+						if (key.isValid() && key.isReadable()) {
+							this.read(key);
+						}
+						if (key.isValid() && key.isWritable()) {
+							this.write(key);
+						}
+					} catch (IOException e) {
+						Log.debug("Control connection closed: {0}", e);
+						this.close(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			Log.error("Control server stopped.", e);
+		} finally {
+			for (SelectionKey key : this.selector.keys()) {
+				this.close(key);
+			}
+			try {
+				this.selector.close();
+			} catch (IOException e) {
+				Log.error("Failed to close the control server.", e);
+			}
+		}
+	}
+
+	/**
+	 * 接続を受け付けます。
+	 * @throws IOException
+	 */
+	private void accept() throws IOException {
+
+		SocketChannel channel = this.serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		channel.register(this.selector, SelectionKey.OP_READ, new Connection());
+	}
+
+	/**
+	 * 受信したコマンドを処理します。
+	 * @param key
+	 * @throws IOException
+	 */
+	private void read(SelectionKey key) throws IOException {
+
+		SocketChannel channel = (SocketChannel) key.channel();
+		Connection connection = (Connection) key.attachment();
+
+		if (channel.read(connection.input) < 0) {
+			this.close(key);
+			return;
+		}
+
+		ByteBuffer input = connection.input;
+		input.flip();
+		int start = 0;
+		for (int i = 0; i < input.limit() && key.isValid(); i++) {
+			if (input.get(i) == '\n') {
+				String line = new String(input.array(), start, i - start, CHARSET).trim();
+				start = i + 1;
+				if (connection.discarding) {
+					connection.discarding = false;
+				} else if (line.length() > 0) {
+					this.reply(key, this.execute(connection, line));
+				}
+			}
+		}
+		if (key.isValid() == false) {
+			return;
+		}
+		input.position(start);
+		input.compact();
+
+		if (input.hasRemaining() == false) {
+			input.clear();
+			if (connection.discarding == false) {
+				connection.discarding = true;
+				this.reply(key, "ERR line too long");
+			}
+		}
+	}
+
+	/**
+	 * コマンドを実行し、応答を返します。
+	 * @param connection
+	 * @param line
+	 * @return
+	 */
+	private String execute(Connection connection, String line) {
+
+		int index = line.indexOf(' ');
+		String command = (index < 0 ? line : line.substring(0, index)).toLowerCase();
+		String argument = index < 0 ? "" : line.substring(index + 1).trim();
+
+		if (command.equals("status")) {
+			return "OK " + this.control.getStatus();
+
+		} else if (command.equals("start")) {
+			this.control.start();
+			return "OK";
+
+		} else if (command.equals("stop")) {
+			this.control.stop();
+			return "OK";
+
+		} else if (command.equals("toggle")) {
+			this.control.toggle();
+			return "OK";
+
+		} else if (command.equals("task")) {
+			if (argument.length() == 0) {
+				return "ERR task name is required";
+			}
+			this.control.switchTask(argument);
+			return "OK";
+
+		} else if (command.equals("sync")) {
+			return this.control.synchronize() ? "OK" : "ERR synchronization is disabled";
+
+		} else if (command.equals("subscribe")) {
+			connection.subscribed = true;
+			return "OK " + this.control.getStatus();
+
+		} else if (command.equals("quit")) {
+			connection.closing = true;
+			return "OK";
+		}
+
+		return "ERR unknown command: " + command;
+	}
+
+	/**
+	 * 応答を送信キューへ登録します。
+	 * @param key
+	 * @param line
+	 * @throws IOException
+	 */
+	private void reply(SelectionKey key, String line) throws IOException {
+
+		Connection connection = (Connection) key.attachment();
+		connection.output.add(CHARSET.encode(line + "\n"));
+		this.write(key);
+	}
+
+	/**
+	 * 送信キューの内容を送信します。送信しきれない場合は書き込み可能になるまで待ちます。
+	 * @param key
+	 * @throws IOException
+	 */
+	private void write(SelectionKey key) throws IOException {
+
+		SocketChannel channel = (SocketChannel) key.channel();
+		Connection connection = (Connection) key.attachment();
+
+		while (connection.output.isEmpty() == false) {
+			ByteBuffer buffer = connection.output.peek();
+			channel.write(buffer);
+			if (buffer.hasRemaining()) {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+			connection.output.remove();
+		}
+
+		if (connection.closing) {
+			this.close(key);
+		} else {
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	/**
+	 * 状態の変化を購読者の送信キューへ登録します。
+	 */
+	private void dispatchEvents() {
+
+		String event;
+		while ((event = this.events.poll()) != null) {
+			for (SelectionKey key : this.selector.keys()) {
+				Object attachment = key.attachment();
+				if (key.isValid() && attachment instanceof Connection
+						&& ((Connection) attachment).subscribed
+						&& ((Connection) attachment).output.size() < MAX_PENDING_EVENTS) {
+					try {
+						this.reply(key, event);
+					} catch (IOException e) {
+						this.close(key);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 接続を閉じます。
+	 * @param key
+	 */
+	private void close(SelectionKey key) {
+
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			Log.debug("Failed to close a control connection: {0}", e);
+		}
+	}
+}
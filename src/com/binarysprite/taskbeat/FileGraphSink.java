@@ -0,0 +1,110 @@
+package com.binarysprite.taskbeat;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * 計測した値をローカルファイルへ追記する登録先です。
+ * 1行に「日付 TAB グラフ名 TAB 値」の形式で記録します。
+ * 
+ * @author Tabunoki
+ *
+ */
+public class FileGraphSink implements GraphSink {
+	
+	/**
+	 * ファイルの文字エンコードです。
+	 */
+	public static final String ENCODING = "UTF-8";
+	
+	/**
+	 * 記録先のファイルです。
+	 */
+	private final File file;
+	
+	/**
+	 * ローカルファイルの登録先を生成します。
+	 * @param file 記録先のファイル
+	 */
+	public FileGraphSink(File file) {
+		
+		if (file == null) {
+			throw new NullPointerException("file is null.");
+		}
+		
+		this.file = file;
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.binarysprite.taskbeat.GraphSink#getName()
+	 */
+	public String getName() {
+		return "file:" + this.file.getName();
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.binarysprite.taskbeat.GraphSink#post(java.lang.String, java.util.Date, double)
+	 */
+	public synchronized void post(String graphname, Date date, double value) throws IOException {
+		
+		StringBuffer buffer = new StringBuffer();
+		buffer.append(new SimpleDateFormat("yyyy-MM-dd").format(date));
+		buffer.append('\t');
+		buffer.append(graphname);
+		buffer.append('\t');
+		buffer.append(String.valueOf(value));
+		buffer.append('\n');
+		
+		Writer writer = new OutputStreamWriter(new FileOutputStream(this.file, true), ENCODING);
+		try {
+			writer.write(buffer.toString());
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * 指定のグラフの記録を読み込みます。同じ日付の記録が複数ある場合は最後の記録を採用します。
+	 * @param graphname グラフ名
+	 * @return 日付（yyyy-MM-dd）をキーとする値
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	public synchronized SortedMap<String, Double> load(String graphname) throws IOException {
+		
+		SortedMap<String, Double> values = new TreeMap<String, Double>();
+		
+		if (this.file.isFile() == false) {
+			return values;
+		}
+		
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(this.file), ENCODING));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] columns = line.split("\t");
+				if (columns.length == 3 && columns[1].equals(graphname)) {
+					try {
+						values.put(columns[0], Double.valueOf(columns[2]));
+					} catch (NumberFormatException e) {
+						Log.warn("Invalid line in {0}: {1}", this.file, line);
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		
+		return values;
+	}
+}
@@ -0,0 +1,305 @@
+package com.binarysprite.taskbeat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 計測した値を複数の登録先へ配信するディスパッチャーです。
+ * 登録先ごとに容量制限付きのキューと配信スレッドを持つため、
+ * 遅い登録先が他の登録先や画面の更新を待たせることはありません。
+ * キューが満杯の場合、値は破棄され破棄件数として記録されます。
+ *
+ * @author Tabunoki
+ *
+ */
+public class GraphDispatcher {
+
+	/**
+	 * 配信する値です。
+	 * @author Tabunoki
+	 *
+	 */
+	private static class Entry {
+
+		private final String graphname;
+
+		private final Date date;
+
+		private final double value;
+
+		private final long enqueuedTime;
+
+		/**
+		 * @param graphname
+		 * @param date
+		 * @param value
+		 */
+		public Entry(String graphname, Date date, double value) {
+			super();
+			this.graphname = graphname;
+			this.date = date;
+			this.value = value;
+			this.enqueuedTime = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * 登録先ひとつ分のキューと配信スレッドです。
+	 * @author Tabunoki
+	 *
+	 */
+	public static class Channel implements Runnable {
+
+		private final GraphSink sink;
+
+		private final BlockingQueue<Entry> queue;
+
+		private final Thread thread;
+
+		private final AtomicLong deliveredCount = new AtomicLong();
+
+		private final AtomicLong failedCount = new AtomicLong();
+
+		private final AtomicLong droppedCount = new AtomicLong();
+
+		/**
+		 * 直近に配信を完了した値の遅延時間です。
+		 */
+		private volatile long lastLag;
+
+		/**
+		 * 配信中の値が登録された時間です。配信中でない場合は零です。
+		 */
+		private volatile long inFlightTime;
+
+		private volatile boolean closed;
+
+		/**
+		 * @param sink
+		 * @param capacity
+		 */
+		private Channel(GraphSink sink, int capacity) {
+			super();
+			this.sink = sink;
+			this.queue = new ArrayBlockingQueue<Entry>(capacity);
+			this.thread = new Thread(this, "GraphSink-" + sink.getName());
+			this.thread.setDaemon(true);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		public void run() {
+
+			while (this.closed == false || this.queue.isEmpty() == false) {
+
+				Entry entry;
+				try {
+					entry = this.queue.poll(100, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					break;
+				}
+				if (entry == null) {
+					continue;
+				}
+
+				this.inFlightTime = entry.enqueuedTime;
+				try {
+					this.sink.post(entry.graphname, entry.date, entry.value);
+					this.deliveredCount.incrementAndGet();
+				} catch (Exception e) {
+					this.failedCount.incrementAndGet();
+					Log.warn("Failed to post to {0}: {1}", this.sink.getName(), e);
+				} finally {
+					this.lastLag = System.currentTimeMillis() - entry.enqueuedTime;
+					this.inFlightTime = 0;
+				}
+			}
+		}
+
+		/**
+		 * 値をキューへ登録します。キューが満杯の場合は破棄します。
+		 * @param entry
+		 */
+		private void offer(Entry entry) {
+
+			if (this.closed || this.queue.offer(entry) == false) {
+				this.droppedCount.incrementAndGet();
+			}
+		}
+
+		/**
+		 * @return 登録先
+		 */
+		public GraphSink getSink() {
+			return this.sink;
+		}
+
+		/**
+		 * 登録先の遅延時間を返します。
+		 * 未配信の値がある場合は最も古い値の待ち時間、ない場合は直近の配信の所要時間です。
+		 * @return 遅延時間（ミリ秒）
+		 */
+		public long getLag() {
+
+			long oldest = this.inFlightTime;
+			if (oldest == 0) {
+				Entry head = this.queue.peek();
+				if (head != null) {
+					oldest = head.enqueuedTime;
+				}
+			}
+
+			return oldest == 0 ? this.lastLag : System.currentTimeMillis() - oldest;
+		}
+
+		/**
+		 * @return 未配信の件数
+		 */
+		public int getPendingCount() {
+			return this.queue.size();
+		}
+
+		/**
+		 * @return 配信に成功した件数
+		 */
+		public long getDeliveredCount() {
+			return this.deliveredCount.get();
+		}
+
+		/**
+		 * @return 配信に失敗した件数
+		 */
+		public long getFailedCount() {
+			return this.failedCount.get();
+		}
+
+		/**
+		 * @return キューが満杯のため破棄した件数
+		 */
+		public long getDroppedCount() {
+			return this.droppedCount.get();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return this.sink.getName() +
+					" lag=" + this.getLag() + "ms" +
+					" pending=" + this.getPendingCount() +
+					" delivered=" + this.getDeliveredCount() +
+					" failed=" + this.getFailedCount() +
+					" dropped=" + this.getDroppedCount();
+		}
+	}
+
+	/**
+	 * 登録先ごとのキューの容量です。
+	 */
+	private final int capacity;
+
+	/**
+	 * 登録先ごとのチャンネルです。
+	 */
+	private final List<Channel> channels = new CopyOnWriteArrayList<Channel>();
+
+	/**
+	 * ディスパッチャーを生成します。
+	 * @param capacity 登録先ごとのキューの容量
+	 */
+	public GraphDispatcher(int capacity) {
+
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive.");
+		}
+
+		this.capacity = capacity;
+	}
+
+	/**
+	 * 登録先を追加し、配信を開始します。
+	 * @param sink 登録先
+	 */
+	public void addSink(GraphSink sink) {
+
+		if (sink == null) {
+			throw new NullPointerException("sink is null.");
+		}
+
+		Channel channel = new Channel(sink, this.capacity);
+		this.channels.add(channel);
+		channel.thread.start();
+	}
+
+	/**
+	 * すべての登録先へ値を配信します。このメソッドは待機しません。
+	 * @param graphname グラフ名
+	 * @param date 日付
+	 * @param value 値
+	 */
+	public void publish(String graphname, Date date, double value) {
+
+		Entry entry = new Entry(graphname, date, value);
+
+		for (Channel channel : this.channels) {
+			channel.offer(entry);
+		}
+	}
+
+	/**
+	 * 登録先ごとのチャンネルを返します。
+	 * @return チャンネルのリスト
+	 */
+	public List<Channel> getChannels() {
+		return Collections.unmodifiableList(new ArrayList<Channel>(this.channels));
+	}
+
+	/**
+	 * 登録先ごとの遅延時間と件数をログへ出力します。
+	 */
+	public void logStatus() {
+
+		for (Channel channel : this.channels) {
+			if (channel.getDroppedCount() > 0 || channel.getFailedCount() > 0) {
+				Log.warn("Sink {0}", channel);
+			} else {
+				Log.info("Sink {0}", channel);
+			}
+		}
+	}
+
+	/**
+	 * 新しい値の受け付けを終了し、未配信の値の配信を指定時間まで待ちます。
+	 * @param timeout 待機する最大時間（ミリ秒）
+	 */
+	public void shutdown(long timeout) {
+
+		for (Channel channel : this.channels) {
+			channel.closed = true;
+		}
+
+		long deadline = System.currentTimeMillis() + timeout;
+		for (Channel channel : this.channels) {
+			long rest = deadline - System.currentTimeMillis();
+			if (rest <= 0) {
+				break;
+			}
+			try {
+				channel.thread.join(rest);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+
+		this.logStatus();
+	}
+}
@@ -0,0 +1,28 @@
+package com.binarysprite.taskbeat;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * 計測した値の登録先を表すインターフェースです。
+ * 
+ * @author Tabunoki
+ *
+ */
+public interface GraphSink {
+	
+	/**
+	 * 登録先の名前を返します。
+	 * @return 登録先の名前
+	 */
+	String getName();
+	
+	/**
+	 * 指定の日付で指定のグラフに値を登録します。
+	 * @param graphname グラフ名
+	 * @param date 日付
+	 * @param value 値
+	 * @throws IOException 登録に失敗した場合
+	 */
+	void post(String graphname, Date date, double value) throws IOException;
+}
@@ -3,11 +3,13 @@ package com.binarysprite.taskbeat;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 
@@ -18,7 +20,7 @@ import org.apache.commons.httpclient.methods.PostMethod;
  * @author Tabunoki
  *
  */
-public class HatenaGraph {
+public class HatenaGraph implements GraphSink {
 	
 	/**
 	 * はてなグラフAPIのエンドポイントURLです。
@@ -71,12 +73,20 @@ public class HatenaGraph {
 		this.password = password;
 	}
 	
+	/* (non-Javadoc)
+	 * @see com.binarysprite.taskbeat.GraphSink#getName()
+	 */
+	public String getName() {
+		return "hatena:" + this.username;
+	}
+	
 	/**
 	 * 現在の日付で指定のグラフに値を登録します。
 	 * @param graphname グラフ名
 	 * @param value 値
+	 * @throws IOException 登録に失敗した場合
 	 */
-	public void post(String graphname, double value) {
+	public void post(String graphname, double value) throws IOException {
 		
 		this.post(graphname, new Date(), value);
 	}
@@ -86,8 +96,9 @@ public class HatenaGraph {
 	 * @param graphname グラフ名
 	 * @param date 日付
 	 * @param value 値
+	 * @throws IOException 通信に失敗した場合、もしくは登録が受け付けられなかった場合
 	 */
-	public void post(String graphname, Date date, double value) {
+	public void post(String graphname, Date date, double value) throws IOException {
 		
 		HttpClient client = new HttpClient();
 		PostMethod method = new PostMethod(this.endpointURL);
@@ -99,11 +110,12 @@ public class HatenaGraph {
 		method.setParameter("value", String.valueOf(value));
 		
 		try {
-			client.executeMethod(method);
-		} catch (HttpException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
+			int status = client.executeMethod(method);
+			if (status < 200 || status >= 300) {
+				throw new IOException("Failed to post " + graphname + ": " + method.getStatusLine());
+			}
+		} finally {
+			method.releaseConnection();
 		}
 	}
 	
@@ -112,8 +124,9 @@ public class HatenaGraph {
 	 * @param graphname グラフ名
 	 * @param type データタイプ（YAMLもしくはJSON）
 	 * @return グラフデータ
+	 * @throws IOException 取得に失敗した場合
 	 */
-	public String get(String graphname, DataType type) {
+	public String get(String graphname, DataType type) throws IOException {
 		
 		return this.get(graphname, this.username, type);
 	}
@@ -124,8 +137,9 @@ public class HatenaGraph {
 	 * @param username ユーザー名
 	 * @param type データタイプ（YAMLもしくはJSON）
 	 * @return グラフデータ
+	 * @throws IOException 通信に失敗した場合、もしくはグラフを取得できなかった場合
 	 */
-	public String get(String graphname, String username, DataType type) {
+	public String get(String graphname, String username, DataType type) throws IOException {
 		
 		HttpClient client = new HttpClient();
 		GetMethod method = new GetMethod(
@@ -138,21 +152,14 @@ public class HatenaGraph {
 		method.addRequestHeader("X-WSSE", WSSE.getHeaderValue(this.username, this.password));
 		
 		try {
-			client.executeMethod(method);
-		} catch (HttpException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		
-		String data = null;
-		try {
-			data = method.getResponseBodyAsString();
-		} catch (IOException e) {
-			e.printStackTrace();
+			int status = client.executeMethod(method);
+			if (status != HttpStatus.SC_OK) {
+				throw new IOException("Failed to get " + graphname + ": " + method.getStatusLine());
+			}
+			return method.getResponseBodyAsString();
+		} finally {
+			method.releaseConnection();
 		}
-		
-		return data;
 	}
 	
 	/**
@@ -160,8 +167,9 @@ public class HatenaGraph {
 	 * @param date
 	 * @param graphname
 	 * @return
+	 * @throws IOException グラフを取得できなかった場合
 	 */
-	public double getValue(Date date, String graphname) {
+	public double getValue(Date date, String graphname) throws IOException {
 		
 		return this.getValue(date, graphname, this.username);
 	}
@@ -172,19 +180,50 @@ public class HatenaGraph {
 	 * @param graphname
 	 * @param username
 	 * @return
+	 * @throws IOException グラフを取得できなかった場合
 	 */
-	public double getValue(Date date, String graphname, String username) {
+	public double getValue(Date date, String graphname, String username) throws IOException {
 		
-		System.out.println(date + ", " + graphname + ", " + username);
+		Log.debug("{0}, {1}, {2}", date, graphname, username);
 		
-		Matcher matcher = ROW_PATTERN.matcher(this.get(graphname, username, DataType.JSON));
+		Double value = this.getValues(graphname, username).get(DATE_FORMAT.format(date));
+		
+		return value == null ? 0 : value.doubleValue();
+	}
+	
+	/**
+	 * 指定のグラフのすべてのデータを取得します。
+	 * @param graphname グラフ名
+	 * @return 日付（yyyy-MM-dd）をキーとする値
+	 * @throws IOException グラフを取得できなかった場合
+	 */
+	public SortedMap<String, Double> getValues(String graphname) throws IOException {
+		
+		return this.getValues(graphname, this.username);
+	}
+	
+	/**
+	 * 指定のユーザーのグラフのすべてのデータを取得します。
+	 * @param graphname グラフ名
+	 * @param username ユーザー名
+	 * @return 日付（yyyy-MM-dd）をキーとする値
+	 * @throws IOException グラフを取得できなかった場合
+	 */
+	public SortedMap<String, Double> getValues(String graphname, String username) throws IOException {
+		
+		SortedMap<String, Double> values = new TreeMap<String, Double>();
+		
+		String data = this.get(graphname, username, DataType.JSON);
+		if (data == null) {
+			return values;
+		}
+		
+		Matcher matcher = ROW_PATTERN.matcher(data);
 		
 		while (matcher.find()) {
-			if (matcher.group(1).equals(DATE_FORMAT.format(date))) {
-				return Double.valueOf(matcher.group(2));
-			}
+			values.put(matcher.group(1), Double.valueOf(matcher.group(2)));
 		}
 		
-		return 0;
+		return values;
 	}
 }
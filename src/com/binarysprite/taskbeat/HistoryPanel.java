@@ -0,0 +1,487 @@
+package com.binarysprite.taskbeat;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.image.BufferedImage;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JComponent;
+
+import org.jdesktop.swingworker.SwingWorker;
+
+/**
+ * 日ごとの通算時間の履歴を棒グラフで表示するパネルです。
+ * 描画はバックグラウンドのスレッドで{@link BufferedImage}へ行い、
+ * 表示しきれない履歴はLTTB（Largest-Triangle-Three-Buckets）法で画素の幅まで間引きます。
+ * 間引いていない場合、新しい日の追加と当日の値の更新は直前の画像への差分の描画で済ませます。
+ * このクラスのメソッドはイベントディスパッチスレッドから呼び出してください。
+ *
+ * @author Tabunoki
+ *
+ */
+public class HistoryPanel extends JComponent {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * 1日分の棒の幅（ピクセル）です。
+	 */
+	private final int dayWidth;
+
+	/**
+	 * 棒の色です。
+	 */
+	private final Color barColor;
+
+	/**
+	 * 日付（yyyy-MM-dd）をキーとする通算時間（秒）です。
+	 */
+	private final SortedMap<String, Double> values = new TreeMap<String, Double>();
+
+	/**
+	 * 表示中の描画結果です。
+	 */
+	private Rendering rendering;
+
+	/**
+	 * 最後に開始した描画の世代です。古い世代の描画結果は破棄します。
+	 */
+	private int generation;
+
+	/**
+	 * 表示中の描画結果の世代です。
+	 */
+	private int acceptedGeneration;
+
+	/**
+	 * 描画の結果です。
+	 * @author Tabunoki
+	 *
+	 */
+	private static class Rendering {
+
+		private final BufferedImage image;
+
+		/**
+		 * 描画した日数です。間引いた場合は負の値です。
+		 */
+		private final int days;
+
+		private final double max;
+
+		/**
+		 * @param image
+		 * @param days
+		 * @param max
+		 */
+		public Rendering(BufferedImage image, int days, double max) {
+			super();
+			this.image = image;
+			this.days = days;
+			this.max = max;
+		}
+	}
+
+	/**
+	 * 履歴をすべて描画するタスククラスです。
+	 * @author Tabunoki
+	 *
+	 */
+	private class Render extends SwingWorker<Rendering, Long> {
+
+		private final int generation;
+
+		private final SortedMap<String, Double> values;
+
+		private final int width;
+
+		private final int height;
+
+		/**
+		 * @param generation
+		 * @param values 履歴の複製
+		 * @param width
+		 * @param height
+		 */
+		public Render(int generation, SortedMap<String, Double> values, int width, int height) {
+			super();
+			this.generation = generation;
+			this.values = values;
+			this.width = width;
+			this.height = height;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.jdesktop.swingworker.SwingWorker#doInBackground()
+		 */
+		@Override
+		protected Rendering doInBackground() throws Exception {
+
+			double[] series = toSeries(this.values);
+			int columns = Math.max(1, this.width / dayWidth);
+			boolean downsampled = series.length > columns;
+			double[] points = downsampled ? downsample(series, columns) : series;
+
+			double max = 0;
+			for (double point : points) {
+				max = Math.max(max, point);
+			}
+
+			BufferedImage image = new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D graphics = image.createGraphics();
+			try {
+				for (int i = 0; i < points.length; i++) {
+					drawBar(graphics, this.width - (points.length - i) * dayWidth, this.height, points[i], max);
+				}
+			} finally {
+				graphics.dispose();
+			}
+
+			return new Rendering(image, downsampled ? -1 : points.length, max);
+		}
+
+		/* (non-Javadoc)
+		 * @see org.jdesktop.swingworker.SwingWorker#done()
+		 */
+		@Override
+		protected void done() {
+			accept(this.generation, this);
+		}
+
+	}
+
+	/**
+	 * 描画済みの画像に最新の1日分だけを描き足すタスククラスです。
+	 * @author Tabunoki
+	 *
+	 */
+	private class Patch extends SwingWorker<Rendering, Long> {
+
+		private final int generation;
+
+		private final BufferedImage source;
+
+		private final int days;
+
+		private final double max;
+
+		private final boolean append;
+
+		private final double value;
+
+		/**
+		 * @param generation
+		 * @param rendering 描き足す元の描画結果
+		 * @param append 新しい日を追加する場合はtrue、最新の日を更新する場合はfalse
+		 * @param value
+		 */
+		public Patch(int generation, Rendering rendering, boolean append, double value) {
+			super();
+			this.generation = generation;
+			this.source = rendering.image;
+			this.days = rendering.days;
+			this.max = rendering.max;
+			this.append = append;
+			this.value = value;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.jdesktop.swingworker.SwingWorker#doInBackground()
+		 */
+		@Override
+		protected Rendering doInBackground() throws Exception {
+
+			int width = this.source.getWidth();
+			int height = this.source.getHeight();
+
+			BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D graphics = image.createGraphics();
+			try {
+				graphics.drawImage(this.source, this.append ? -dayWidth : 0, 0, null);
+				graphics.setComposite(AlphaComposite.Clear);
+				graphics.fillRect(width - dayWidth, 0, dayWidth, height);
+				graphics.setComposite(AlphaComposite.SrcOver);
+				drawBar(graphics, width - dayWidth, height, this.value, this.max);
+			} finally {
+				graphics.dispose();
+			}
+
+			return new Rendering(image, this.days + (this.append ? 1 : 0), this.max);
+		}
+
+		/* (non-Javadoc)
+		 * @see org.jdesktop.swingworker.SwingWorker#done()
+		 */
+		@Override
+		protected void done() {
+			accept(this.generation, this);
+		}
+
+	}
+
+	/**
+	 * 履歴のパネルを生成します。
+	 * @param dayWidth 1日分の棒の幅（ピクセル）
+	 * @param barColor 棒の色
+	 */
+	public HistoryPanel(int dayWidth, Color barColor) {
+
+		this.dayWidth = Math.max(1, dayWidth);
+		this.barColor = barColor;
+
+		this.addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				render();
+			}
+		});
+	}
+
+	/**
+	 * 履歴を取り込んで描画し直します。
+	 * すでに{@link #put(String, double)}で更新した日付は、取り込む履歴より新しいため置き換えません。
+	 * @param values 日付（yyyy-MM-dd）をキーとする通算時間（秒）
+	 */
+	public void setValues(Map<String, Double> values) {
+
+		for (Map.Entry<String, Double> entry : values.entrySet()) {
+			if (this.values.containsKey(entry.getKey()) == false) {
+				this.values.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+		this.render();
+	}
+
+	/**
+	 * 指定の日付の通算時間を更新します。
+	 * 最新の日の更新もしくは翌日の追加で縦軸が変わらない場合は差分だけを描画します。
+	 * @param date 日付（yyyy-MM-dd）
+	 * @param value 通算時間（秒）
+	 */
+	public void put(String date, double value) {
+
+		String last = this.values.isEmpty() ? null : this.values.lastKey();
+		this.values.put(date, value);
+
+		Rendering current = this.rendering;
+
+		if (current == null || last == null || this.generation != this.acceptedGeneration
+				|| current.days < 0 || value > current.max) {
+			this.render();
+
+		} else if (date.equals(last)) {
+			new Patch(++this.generation, current, false, value).execute();
+
+		} else if (date.equals(nextDate(last))
+				&& (current.days + 1) * this.dayWidth <= current.image.getWidth()) {
+			new Patch(++this.generation, current, true, value).execute();
+
+		} else {
+			this.render();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.swing.JComponent#paintComponent(java.awt.Graphics)
+	 */
+	@Override
+	protected void paintComponent(Graphics g) {
+
+		if (this.isOpaque()) {
+			g.setColor(this.getBackground());
+			g.fillRect(0, 0, this.getWidth(), this.getHeight());
+		}
+		if (this.rendering != null) {
+			g.drawImage(this.rendering.image, 0, 0, null);
+		}
+	}
+
+	/**
+	 * 履歴をすべてバックグラウンドで描画し直します。
+	 * 履歴の複製を渡し、系列への変換もバックグラウンドで行います。
+	 */
+	private void render() {
+
+		int width = this.getWidth();
+		int height = this.getHeight();
+
+		if (width <= 0 || height <= 0 || this.values.isEmpty()) {
+			return;
+		}
+
+		new Render(++this.generation, new TreeMap<String, Double>(this.values), width, height).execute();
+	}
+
+	/**
+	 * 描画の結果を採用します。
+	 * @param generation
+	 * @param worker
+	 */
+	private void accept(int generation, SwingWorker<Rendering, Long> worker) {
+
+		Rendering result;
+		try {
+			result = worker.get();
+		} catch (InterruptedException e) {
+			Log.debug("Rendering interrupted: {0}", e);
+			return;
+		} catch (ExecutionException e) {
+			Log.error("Failed to render the history.", e.getCause());
+			return;
+		}
+
+		if (generation != this.generation) {
+			return;
+		}
+
+		this.rendering = result;
+		this.acceptedGeneration = generation;
+		this.repaint();
+	}
+
+	/**
+	 * 棒をひとつ描画します。
+	 * @param graphics
+	 * @param x
+	 * @param height
+	 * @param value
+	 * @param max
+	 */
+	private void drawBar(Graphics2D graphics, int x, int height, double value, double max) {
+
+		int barHeight = max <= 0 ? 0 : (int) Math.round(value / max * height);
+
+		graphics.setColor(this.barColor);
+		graphics.fillRect(x, height - barHeight, Math.max(1, this.dayWidth - 1), barHeight);
+	}
+
+	/**
+	 * 履歴を最初の日から最後の日までの連続した系列に変換します。記録のない日は零です。
+	 * @param values
+	 * @return
+	 */
+	private static double[] toSeries(SortedMap<String, Double> values) {
+
+		List<Double> series = new ArrayList<Double>();
+		String last = values.lastKey();
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		Calendar calendar = Calendar.getInstance();
+		String date = values.firstKey();
+		try {
+			calendar.setTime(dateFormat.parse(date));
+		} catch (ParseException e) {
+			date = null;
+		}
+
+		while (date != null) {
+			Double value = values.get(date);
+			series.add(value == null ? 0 : value.doubleValue());
+			if (date.compareTo(last) >= 0) {
+				break;
+			}
+			calendar.add(Calendar.DATE, 1);
+			date = dateFormat.format(calendar.getTime());
+		}
+
+		double[] result = new double[series.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = series.get(i);
+		}
+
+		return result;
+	}
+
+	/**
+	 * 翌日の日付を返します。
+	 * @param date 日付（yyyy-MM-dd）
+	 * @return 翌日の日付、日付の形式が正しくない場合はnull
+	 */
+	private static String nextDate(String date) {
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		Calendar calendar = Calendar.getInstance();
+		try {
+			calendar.setTime(dateFormat.parse(date));
+		} catch (ParseException e) {
+			return null;
+		}
+		calendar.add(Calendar.DATE, 1);
+
+		return dateFormat.format(calendar.getTime());
+	}
+
+	/**
+	 * LTTB（Largest-Triangle-Three-Buckets）法で系列を指定の点数に間引きます。
+	 * 最初と最後の点は必ず残し、その間の各区間からは前の点と次の区間の平均とで
+	 * 作る三角形の面積が最大となる点を選びます。
+	 * @param data 系列
+	 * @param threshold 点数
+	 * @return 間引いた系列
+	 */
+	static double[] downsample(double[] data, int threshold) {
+
+		if (threshold >= data.length) {
+			return data.clone();
+		}
+		if (threshold < 3) {
+			double[] result = new double[threshold];
+			System.arraycopy(data, data.length - threshold, result, 0, threshold);
+			return result;
+		}
+
+		double[] sampled = new double[threshold];
+		double bucketSize = (double) (data.length - 2) / (threshold - 2);
+
+		int a = 0;
+		sampled[0] = data[0];
+
+		for (int i = 0; i < threshold - 2; i++) {
+
+			int nextStart = (int) Math.floor((i + 1) * bucketSize) + 1;
+			int nextEnd = Math.min((int) Math.floor((i + 2) * bucketSize) + 1, data.length);
+			double averageX = 0;
+			double averageY = 0;
+			for (int j = nextStart; j < nextEnd; j++) {
+				averageX += j;
+				averageY += data[j];
+			}
+			int nextLength = Math.max(1, nextEnd - nextStart);
+			averageX /= nextLength;
+			averageY /= nextLength;
+
+			int start = (int) Math.floor(i * bucketSize) + 1;
+			int end = (int) Math.floor((i + 1) * bucketSize) + 1;
+			double maxArea = -1;
+			int selected = start;
+			for (int j = start; j < end; j++) {
+				double area = Math.abs((a - averageX) * (data[j] - data[a])
+						- (a - j) * (averageY - data[a]));
+				if (area > maxArea) {
+					maxArea = area;
+					selected = j;
+				}
+			}
+
+			sampled[i + 1] = data[selected];
+			a = selected;
+		}
+
+		sampled[threshold - 1] = data[data.length - 1];
+
+		return sampled;
+	}
+}
@@ -0,0 +1,430 @@
+package com.binarysprite.taskbeat;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.text.Format;
+import java.text.MessageFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * 非同期にログを出力するユーティリティクラスです。
+ * ログは事前に確保したリングバッファへ登録され、書き込みスレッドがまとめてファイルへ出力します。
+ * メッセージの整形は書き込みスレッドで行うため、呼び出し側は待機しません。
+ * バッファが満杯の場合、ログは破棄され件数のみが記録されます。
+ * 書式を指定しない整数の引数は、ポート番号や件数のため桁区切りなしで出力します。
+ *
+ * @author Tabunoki
+ *
+ */
+public final class Log {
+
+	/**
+	 * ログの出力レベルです。
+	 * @author Tabunoki
+	 *
+	 */
+	public enum Level {
+		DEBUG,
+		INFO,
+		WARN,
+		ERROR;
+	}
+
+	/**
+	 * ログの文字エンコードです。
+	 */
+	public static final String ENCODING = "UTF-8";
+
+	/**
+	 * リングバッファの容量です。
+	 */
+	private static final int CAPACITY = 1024;
+
+	/**
+	 * 書き込みスレッドがバッファを確認する間隔（ミリ秒）です。
+	 */
+	private static final long FLUSH_INTERVAL = 200;
+
+	/**
+	 * リングバッファの要素です。
+	 * @author Tabunoki
+	 *
+	 */
+	private static class Slot {
+
+		private Level level;
+
+		private long time;
+
+		private String pattern;
+
+		private Object[] arguments;
+	}
+
+	/**
+	 * リングバッファです。
+	 */
+	private static final Slot[] SLOTS = new Slot[CAPACITY];
+
+	/**
+	 * 書き込みスレッドへ渡すための作業用の領域です。
+	 */
+	private static final Slot[] BATCH = new Slot[CAPACITY];
+
+	/**
+	 * リングバッファの排他制御に使用するロックです。
+	 */
+	private static final Object LOCK = new Object();
+
+	/**
+	 * 次に読み出す位置です。
+	 */
+	private static int head;
+
+	/**
+	 * 登録されている件数です。
+	 */
+	private static int size;
+
+	/**
+	 * バッファが満杯のため破棄した件数です。
+	 */
+	private static long dropped;
+
+	/**
+	 * 出力する最低のレベルです。設定の読み込みまではすべてのレベルを受け付けます。
+	 */
+	private static volatile Level threshold = Level.DEBUG;
+
+	static {
+
+		for (int i = 0; i < CAPACITY; i++) {
+			SLOTS[i] = new Slot();
+			BATCH[i] = new Slot();
+		}
+
+		Thread writer = new Thread(new Runnable() {
+			public void run() {
+				while (true) {
+					try {
+						Thread.sleep(FLUSH_INTERVAL);
+					} catch (InterruptedException e) {
+						break;
+					}
+					flush();
+				}
+			}
+		}, "Log-Writer");
+		writer.setDaemon(true);
+		writer.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				flush();
+			}
+		}, "Log-Shutdown"));
+	}
+
+	/**
+	 * 出力先のファイルです。
+	 */
+	private static File file;
+
+	/**
+	 * 出力先のファイルへのライターです。
+	 */
+	private static Writer writer;
+
+	/**
+	 * ローテーションするファイルの大きさ（バイト）です。
+	 */
+	private static long maxSize;
+
+	/**
+	 * 残すバックアップファイルの数です。
+	 */
+	private static int backups;
+
+	/**
+	 * 標準出力へも出力するかを表す真偽値です。
+	 */
+	private static boolean console;
+
+	/**
+	 * ユーティリティクラスのためインスタンスを生成することはできません。
+	 * 開発者はコンストラクタを作成しないでください。
+	 */
+	private Log() {
+
+	}
+
+	/**
+	 * DEBUGレベルのログを登録します。
+	 * @param pattern {@link MessageFormat}形式のメッセージ
+	 * @param arguments メッセージの引数
+	 */
+	public static void debug(String pattern, Object... arguments) {
+		log(Level.DEBUG, pattern, arguments);
+	}
+
+	/**
+	 * INFOレベルのログを登録します。
+	 * @param pattern {@link MessageFormat}形式のメッセージ
+	 * @param arguments メッセージの引数
+	 */
+	public static void info(String pattern, Object... arguments) {
+		log(Level.INFO, pattern, arguments);
+	}
+
+	/**
+	 * WARNレベルのログを登録します。
+	 * @param pattern {@link MessageFormat}形式のメッセージ
+	 * @param arguments メッセージの引数
+	 */
+	public static void warn(String pattern, Object... arguments) {
+		log(Level.WARN, pattern, arguments);
+	}
+
+	/**
+	 * ERRORレベルのログを登録します。
+	 * 最後の引数が例外の場合、スタックトレースも出力します。
+	 * @param pattern {@link MessageFormat}形式のメッセージ
+	 * @param arguments メッセージの引数
+	 */
+	public static void error(String pattern, Object... arguments) {
+		log(Level.ERROR, pattern, arguments);
+	}
+
+	/**
+	 * ログをリングバッファへ登録します。このメソッドは待機しません。
+	 * @param level レベル
+	 * @param pattern {@link MessageFormat}形式のメッセージ
+	 * @param arguments メッセージの引数
+	 */
+	public static void log(Level level, String pattern, Object... arguments) {
+
+		if (level.compareTo(threshold) < 0) {
+			return;
+		}
+
+		long time = System.currentTimeMillis();
+
+		synchronized (LOCK) {
+			if (size == CAPACITY) {
+				dropped++;
+				return;
+			}
+			Slot slot = SLOTS[(head + size) % CAPACITY];
+			slot.level = level;
+			slot.time = time;
+			slot.pattern = pattern;
+			slot.arguments = arguments;
+			size++;
+		}
+	}
+
+	/**
+	 * リングバッファのログを整形してファイルへ出力します。
+	 */
+	private static synchronized void flush() {
+
+		int count;
+		long lost;
+
+		synchronized (LOCK) {
+			count = size;
+			lost = dropped;
+			for (int i = 0; i < count; i++) {
+				Slot slot = SLOTS[(head + i) % CAPACITY];
+				BATCH[i].level = slot.level;
+				BATCH[i].time = slot.time;
+				BATCH[i].pattern = slot.pattern;
+				BATCH[i].arguments = slot.arguments;
+				slot.pattern = null;
+				slot.arguments = null;
+			}
+			head = (head + count) % CAPACITY;
+			size = 0;
+			dropped = 0;
+		}
+
+		if (count == 0 && lost == 0) {
+			return;
+		}
+
+		if (file == null) {
+			configure();
+		}
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		StringBuffer buffer = new StringBuffer();
+
+		if (lost > 0) {
+			buffer.append(dateFormat.format(new Date()));
+			buffer.append(" WARN  ");
+			buffer.append(lost);
+			buffer.append(" log messages dropped.\n");
+		}
+
+		for (int i = 0; i < count; i++) {
+			Slot slot = BATCH[i];
+			if (slot.level.compareTo(threshold) >= 0) {
+				format(slot, dateFormat, buffer);
+			}
+			slot.pattern = null;
+			slot.arguments = null;
+		}
+
+		write(buffer.toString());
+	}
+
+	/**
+	 * ログを1件整形します。
+	 * @param slot
+	 * @param dateFormat
+	 * @param buffer
+	 */
+	private static void format(Slot slot, SimpleDateFormat dateFormat, StringBuffer buffer) {
+
+		buffer.append(dateFormat.format(new Date(slot.time)));
+		buffer.append(' ');
+		buffer.append(slot.level);
+		for (int i = slot.level.toString().length(); i < 6; i++) {
+			buffer.append(' ');
+		}
+
+		Object[] arguments = slot.arguments;
+		try {
+			buffer.append(arguments == null || arguments.length == 0
+					? slot.pattern : formatMessage(slot.pattern, arguments));
+		} catch (IllegalArgumentException e) {
+			buffer.append(slot.pattern);
+		}
+		buffer.append('\n');
+
+		if (slot.level == Level.ERROR && arguments != null && arguments.length > 0
+				&& arguments[arguments.length - 1] instanceof Throwable) {
+			StringWriter trace = new StringWriter();
+			((Throwable) arguments[arguments.length - 1]).printStackTrace(new PrintWriter(trace));
+			buffer.append(trace.toString());
+		}
+	}
+
+	/**
+	 * メッセージを整形します。書式を指定しない整数の引数は桁区切りなしの文字列にします。
+	 * @param pattern
+	 * @param arguments
+	 * @return
+	 */
+	private static String formatMessage(String pattern, Object[] arguments) {
+
+		MessageFormat messageFormat = new MessageFormat(pattern);
+		Format[] formats = messageFormat.getFormatsByArgumentIndex();
+
+		Object[] values = arguments.clone();
+		for (int i = 0; i < values.length && i < formats.length; i++) {
+			if (formats[i] == null && (values[i] instanceof Long || values[i] instanceof Integer
+					|| values[i] instanceof Short || values[i] instanceof Byte)) {
+				values[i] = values[i].toString();
+			}
+		}
+
+		return messageFormat.format(values);
+	}
+
+	/**
+	 * 設定を読み込みます。
+	 */
+	private static void configure() {
+
+		String fileName = ClockProperties.LOG_FILE.get();
+		file = new File(ClockProperties.BASEDIR,
+				fileName == null || fileName.length() == 0 ? "clock.log" : fileName);
+
+		try {
+			threshold = Level.valueOf(ClockProperties.LOG_LEVEL.get());
+		} catch (RuntimeException e) {
+			threshold = Level.INFO;
+		}
+		try {
+			maxSize = Long.parseLong(ClockProperties.LOG_MAX_SIZE.get());
+		} catch (RuntimeException e) {
+			maxSize = 1024 * 1024;
+		}
+		try {
+			backups = Integer.parseInt(ClockProperties.LOG_BACKUPS.get());
+		} catch (RuntimeException e) {
+			backups = 3;
+		}
+		console = Boolean.parseBoolean(ClockProperties.LOG_CONSOLE.get());
+	}
+
+	/**
+	 * 文字列をファイルへ出力します。必要であればファイルをローテーションします。
+	 * @param text
+	 */
+	private static void write(String text) {
+
+		if (console) {
+			System.out.print(text);
+		}
+
+		try {
+			if (maxSize > 0 && file.length() + text.length() > maxSize) {
+				rotate();
+			}
+			if (writer == null) {
+				writer = new BufferedWriter(new OutputStreamWriter(
+						new FileOutputStream(file, true), ENCODING));
+			}
+			writer.write(text);
+			writer.flush();
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			close();
+		}
+	}
+
+	/**
+	 * ファイルをローテーションします。
+	 */
+	private static void rotate() {
+
+		close();
+
+		for (int i = backups; i > 0; i--) {
+			File source = i == 1 ? file : new File(file.getPath() + "." + (i - 1));
+			File target = new File(file.getPath() + "." + i);
+			if (source.isFile()) {
+				target.delete();
+				source.renameTo(target);
+			}
+		}
+		if (backups <= 0) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * ライターを閉じます。
+	 */
+	private static void close() {
+
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			writer = null;
+		}
+	}
+}
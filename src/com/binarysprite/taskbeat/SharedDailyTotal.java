@@ -0,0 +1,327 @@
+package com.binarysprite.taskbeat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * 複数のプロセスで共有する日ごとの通算時間です。
+ * グラフごとのメモリマップドファイルに日付（エポック日）ごとの通算時間を保持し、
+ * 各プロセスは自身の経過時間をファイルロックの下で加算します。
+ * グラフへの登録は書き込み権を獲得したひとつのプロセスだけが行います。
+ * <p>
+ * 調整できるのは同じホスト上のプロセスに限ります。メモリマップとファイルロックに依存するため、
+ * ファイル同期ツールやNFSで共有したディレクトリでは複数のホスト間の通算時間は正しく合算されません。
+ *
+ * @author Tabunoki
+ *
+ */
+public class SharedDailyTotal {
+
+	/**
+	 * 1日のミリ秒です。
+	 */
+	public static final long DAY = 24 * 60 * 60 * 1000L;
+
+	/**
+	 * ファイルの識別子です。
+	 */
+	private static final long MAGIC = 0x54424454L;
+
+	/**
+	 * 保持する日数です。
+	 */
+	private static final int SLOTS = 64;
+
+	private static final int MAGIC_OFFSET = 0;
+
+	private static final int WRITER_OFFSET = 8;
+
+	private static final int LEASE_OFFSET = 16;
+
+	private static final int SLOT_OFFSET = 24;
+
+	/**
+	 * ひとつの日付の大きさです。エポック日、通算時間、登録済みの通算時間を保持します。
+	 */
+	private static final int SLOT_SIZE = 24;
+
+	private static final int FILE_SIZE = SLOT_OFFSET + SLOTS * SLOT_SIZE;
+
+	/**
+	 * 日付と通算時間の組です。
+	 * @author Tabunoki
+	 *
+	 */
+	public static class Total {
+
+		private final long epochDay;
+
+		private final long time;
+
+		/**
+		 * @param epochDay
+		 * @param time
+		 */
+		public Total(long epochDay, long time) {
+			super();
+			this.epochDay = epochDay;
+			this.time = time;
+		}
+
+		/**
+		 * @return エポック日
+		 */
+		public long getEpochDay() {
+			return this.epochDay;
+		}
+
+		/**
+		 * @return 通算時間（ミリ秒）
+		 */
+		public long getTime() {
+			return this.time;
+		}
+	}
+
+	/**
+	 * 共有ファイルのチャンネルです。
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * 共有ファイルをマップしたバッファです。
+	 */
+	private final MappedByteBuffer buffer;
+
+	/**
+	 * このプロセスの識別子です。
+	 */
+	private final long writerId;
+
+	/**
+	 * 書き込み権の有効期間（ミリ秒）です。
+	 */
+	private final long lease;
+
+	/**
+	 * このプロセスが共有ファイルへ加算済みの通算時間です。
+	 */
+	private final Map<Long, Long> recorded = new TreeMap<Long, Long>();
+
+	/**
+	 * 共有の通算時間を生成します。
+	 * @param directory 共有ファイルを置くディレクトリ
+	 * @param graphname グラフ名
+	 * @param lease 書き込み権の有効期間（ミリ秒）
+	 * @throws IOException 共有ファイルを開けなかった場合
+	 */
+	public SharedDailyTotal(File directory, String graphname, long lease) throws IOException {
+
+		if (directory == null || graphname == null) {
+			throw new NullPointerException("directory or graphname is null.");
+		}
+
+		directory.mkdirs();
+
+		File file = new File(directory, graphname.replaceAll("[\\\\/:*?\"<>|]", "_") + ".total");
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+		this.channel = randomAccessFile.getChannel();
+		this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+		this.writerId = new Random().nextLong() | 1L;
+		this.lease = lease;
+
+		FileLock lock = this.channel.lock();
+		try {
+			if (this.buffer.getLong(MAGIC_OFFSET) != MAGIC) {
+				for (int offset = 0; offset < FILE_SIZE; offset += 8) {
+					this.buffer.putLong(offset, 0);
+				}
+				this.buffer.putLong(MAGIC_OFFSET, MAGIC);
+			}
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * グラフから取得した値で指定日の通算時間を初期化し、共有の通算時間を返します。
+	 * 他のプロセスがすでに記録している場合は大きい方の値を採用します。
+	 * @param epochDay エポック日
+	 * @param time グラフから取得した通算時間（ミリ秒）
+	 * @return 共有の通算時間（ミリ秒）
+	 * @throws IOException
+	 */
+	public synchronized long seed(long epochDay, long time) throws IOException {
+
+		FileLock lock = this.channel.lock();
+		try {
+			int offset = this.slot(epochDay);
+			if (offset < 0) {
+				return time;
+			}
+			long total = this.buffer.getLong(offset + 8);
+			if (total < time) {
+				this.buffer.putLong(offset + 8, time);
+				this.buffer.putLong(offset + 16, time);
+				total = time;
+			}
+			this.recorded.put(epochDay, total);
+			return total;
+
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * このプロセスの指定日の通算時間を記録します。
+	 * 前回の記録からの増分だけを共有の通算時間へ加算します。
+	 * @param epochDay エポック日
+	 * @param time このプロセスから見た通算時間（ミリ秒）
+	 * @return 共有の通算時間（ミリ秒）
+	 * @throws IOException
+	 */
+	public synchronized long record(long epochDay, long time) throws IOException {
+
+		Long base = this.recorded.get(epochDay);
+		long delta = time - (base == null ? 0 : base.longValue());
+
+		FileLock lock = this.channel.lock();
+		try {
+			int offset = this.slot(epochDay);
+			if (offset < 0) {
+				return time;
+			}
+			long total = this.buffer.getLong(offset + 8);
+			if (delta > 0) {
+				total += delta;
+				this.buffer.putLong(offset + 8, total);
+				this.recorded.put(epochDay, time);
+			}
+			return total;
+
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * 書き込み権を獲得もしくは更新し、未登録の通算時間を返します。
+	 * 返した通算時間は登録済みとして扱います。
+	 * 書き込み権を獲得できなかった場合は空のリストを返します。
+	 * @return 未登録の通算時間のリスト
+	 * @throws IOException
+	 */
+	public synchronized List<Total> poll() throws IOException {
+
+		List<Total> totals = new ArrayList<Total>();
+		long now = System.currentTimeMillis();
+
+		FileLock lock = this.channel.lock();
+		try {
+			if (this.buffer.getLong(WRITER_OFFSET) != this.writerId
+					&& this.buffer.getLong(LEASE_OFFSET) > now) {
+				return totals;
+			}
+			this.buffer.putLong(WRITER_OFFSET, this.writerId);
+			this.buffer.putLong(LEASE_OFFSET, now + this.lease);
+
+			for (int i = 0; i < SLOTS; i++) {
+				int offset = SLOT_OFFSET + i * SLOT_SIZE;
+				long epochDay = this.buffer.getLong(offset);
+				long total = this.buffer.getLong(offset + 8);
+				if (epochDay != 0 && total != this.buffer.getLong(offset + 16)) {
+					this.buffer.putLong(offset + 16, total);
+					totals.add(new Total(epochDay, total));
+				}
+			}
+
+		} finally {
+			lock.release();
+		}
+
+		return totals;
+	}
+
+	/**
+	 * 書き込み権を持っている場合は手放します。
+	 * @throws IOException
+	 */
+	public synchronized void release() throws IOException {
+
+		FileLock lock = this.channel.lock();
+		try {
+			if (this.buffer.getLong(WRITER_OFFSET) == this.writerId) {
+				this.buffer.putLong(LEASE_OFFSET, 0);
+			}
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * 指定日の位置を返します。古い日付が入っている場合は初期化します。
+	 * 指定日より新しい日付が入っている場合は負の値を返します。
+	 * ファイルロックを獲得した状態で呼び出してください。
+	 * @param epochDay
+	 * @return
+	 */
+	private int slot(long epochDay) {
+
+		int offset = SLOT_OFFSET + (int) (epochDay % SLOTS) * SLOT_SIZE;
+		long current = this.buffer.getLong(offset);
+
+		if (current > epochDay) {
+			return -1;
+		}
+		if (current < epochDay) {
+			this.buffer.putLong(offset, epochDay);
+			this.buffer.putLong(offset + 8, 0);
+			this.buffer.putLong(offset + 16, 0);
+		}
+
+		Iterator<Long> iterator = this.recorded.keySet().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().longValue() <= epochDay - SLOTS) {
+				iterator.remove();
+			}
+		}
+
+		return offset;
+	}
+
+	/**
+	 * 指定日時のエポック日（地方時）を返します。
+	 * @param time 日時（ミリ秒）
+	 * @return エポック日
+	 */
+	public static long toEpochDay(long time) {
+
+		return (time + TimeZone.getDefault().getOffset(time)) / DAY;
+	}
+
+	/**
+	 * 指定のエポック日の正午の日時を返します。
+	 * @param epochDay エポック日
+	 * @return 日時
+	 */
+	public static Date toDate(long epochDay) {
+
+		long time = epochDay * DAY + DAY / 2;
+
+		return new Date(time - TimeZone.getDefault().getOffset(time));
+	}
+}
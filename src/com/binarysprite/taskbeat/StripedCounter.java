@@ -0,0 +1,63 @@
+package com.binarysprite.taskbeat;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 多数のスレッドから同時に加算される計数器です。
+ * 値をスレッドごとに異なるストライプへ分散して加算し、読み出し時に合計します。
+ * ストライプの間には詰め物を入れ、同じキャッシュラインを共有しないようにしています。
+ * 
+ * @author Tabunoki
+ *
+ */
+public class StripedCounter {
+	
+	/**
+	 * ストライプの間隔です。8個のlongで64バイトのキャッシュラインを占有します。
+	 */
+	private static final int PADDING = 8;
+	
+	/**
+	 * ストライプの数です。2の累乗です。
+	 */
+	private static final int STRIPES;
+	
+	static {
+		int stripes = 1;
+		while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+			stripes <<= 1;
+		}
+		STRIPES = stripes;
+	}
+	
+	/**
+	 * ストライプごとの値です。
+	 */
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+	
+	/**
+	 * 値を加算します。
+	 * @param delta 加算する値
+	 */
+	public void add(long delta) {
+		
+		long id = Thread.currentThread().getId();
+		int stripe = (int) ((id ^ (id >>> 16)) * 0x9E3779B9L >>> 16) & (STRIPES - 1);
+		
+		this.cells.addAndGet(stripe * PADDING, delta);
+	}
+	
+	/**
+	 * 合計を返します。加算と同時に呼び出された場合、その加算は含まれないことがあります。
+	 * @return 合計
+	 */
+	public long sum() {
+		
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += this.cells.get(i * PADDING);
+		}
+		
+		return sum;
+	}
+}
@@ -0,0 +1,362 @@
+package com.binarysprite.taskbeat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * ローカルの記録とはてなグラフを差分で同期するクラスです。
+ * 日付ごとに前回同期した値のチェックサムと、同期済みの最新の日付（ハイウォーターマーク）を保持します。
+ * <ul>
+ * <li>完全同期 … グラフ全体を一度だけ取得してローカルの記録と比較し、
+ * ローカルで変更された日付を登録し、グラフで変更された日付をローカルへ取り込みます。</li>
+ * <li>差分同期 … グラフを取得せず、ハイウォーターマーク以降の日付のうち
+ * ローカルで変更された日付だけを登録します。</li>
+ * </ul>
+ * 登録はまとめて行い、一定件数ごとに間隔を空けます。
+ * 計測のたびの登録は{@link #createRemoteSink()}の登録先を通して行うことで、
+ * 同期済みとして記録され、差分同期で再び登録されることはありません。
+ *
+ * @author Tabunoki
+ *
+ */
+public class SyncEngine {
+
+	/**
+	 * ハイウォーターマークのキーです。
+	 */
+	private static final String HIGH_WATER_MARK = "HIGH_WATER_MARK";
+
+	/**
+	 * グラフ名です。
+	 */
+	private final String graphname;
+
+	/**
+	 * ローカルの記録です。
+	 */
+	private final FileGraphSink local;
+
+	/**
+	 * 同期先のグラフです。
+	 */
+	private final HatenaGraph remote;
+
+	/**
+	 * 同期状態を保存するファイルです。
+	 */
+	private final File stateFile;
+
+	/**
+	 * 間隔を空けずに登録する件数です。
+	 */
+	private final int batchSize;
+
+	/**
+	 * 登録の間隔（ミリ秒）です。
+	 */
+	private final long batchInterval;
+
+	/**
+	 * 同期エンジンを生成します。
+	 * @param graphname グラフ名
+	 * @param local ローカルの記録
+	 * @param remote 同期先のグラフ
+	 * @param stateFile 同期状態を保存するファイル
+	 * @param batchSize 間隔を空けずに登録する件数
+	 * @param batchInterval 登録の間隔（ミリ秒）
+	 */
+	public SyncEngine(String graphname, FileGraphSink local, HatenaGraph remote,
+			File stateFile, int batchSize, long batchInterval) {
+
+		if (graphname == null || local == null || remote == null || stateFile == null) {
+			throw new NullPointerException("graphname, local, remote or stateFile is null.");
+		}
+
+		this.graphname = graphname;
+		this.local = local;
+		this.remote = remote;
+		this.stateFile = stateFile;
+		this.batchSize = Math.max(1, batchSize);
+		this.batchInterval = batchInterval;
+	}
+
+	/**
+	 * 同期先のグラフへ登録し、登録に成功した値を同期済みとして記録する登録先です。
+	 * @author Tabunoki
+	 *
+	 */
+	private class RemoteSink implements GraphSink {
+
+		/* (non-Javadoc)
+		 * @see com.binarysprite.taskbeat.GraphSink#getName()
+		 */
+		public String getName() {
+			return remote.getName();
+		}
+
+		/* (non-Javadoc)
+		 * @see com.binarysprite.taskbeat.GraphSink#post(java.lang.String, java.util.Date, double)
+		 */
+		public void post(String graphname, Date date, double value) throws IOException {
+
+			if (graphname.equals(SyncEngine.this.graphname)) {
+				SyncEngine.this.post(date, value);
+			} else {
+				remote.post(graphname, date, value);
+			}
+		}
+	}
+
+	/**
+	 * 同期先のグラフへの登録先を生成します。
+	 * この登録先で登録に成功した値は同期済みとして記録されます。
+	 * @return 登録先
+	 */
+	public GraphSink createRemoteSink() {
+
+		return new RemoteSink();
+	}
+
+	/**
+	 * グラフ全体を取得して完全同期します。
+	 * @return 登録した件数
+	 * @throws IOException
+	 */
+	public int synchronize() throws IOException {
+
+		return this.synchronize(this.remote.getValues(this.graphname));
+	}
+
+	/**
+	 * 取得済みのグラフのデータと完全同期します。
+	 * @param remoteValues 日付（yyyy-MM-dd）をキーとするグラフの値
+	 * @return 登録した件数
+	 * @throws IOException
+	 */
+	public synchronized int synchronize(SortedMap<String, Double> remoteValues) throws IOException {
+
+		SortedMap<String, Double> localValues = this.local.load(this.graphname);
+		Properties state = this.loadState();
+
+		TreeSet<String> dates = new TreeSet<String>(localValues.keySet());
+		dates.addAll(remoteValues.keySet());
+
+		List<String> pushes = new ArrayList<String>();
+		int pulls = 0;
+
+		for (String date : dates) {
+
+			Double localValue = localValues.get(date);
+			Double remoteValue = remoteValues.get(date);
+			String localChecksum = checksum(date, localValue);
+			String remoteChecksum = checksum(date, remoteValue);
+
+			if (localChecksum.equals(remoteChecksum)) {
+				state.setProperty(date, localChecksum);
+
+			} else if (localValue != null && localChecksum.equals(state.getProperty(date)) == false) {
+				pushes.add(date);
+
+			} else if (remoteValue != null) {
+				this.local.post(this.graphname, parse(date), remoteValue.doubleValue());
+				state.setProperty(date, remoteChecksum);
+				pulls++;
+			}
+		}
+
+		if (dates.isEmpty() == false) {
+			state.setProperty(HIGH_WATER_MARK, dates.last());
+		}
+
+		int pushed = this.push(pushes, localValues, state);
+
+		Log.info("Synchronized {0}: {1} pushed, {2} pulled.", this.graphname, pushed, pulls);
+
+		return pushed;
+	}
+
+	/**
+	 * グラフを取得せずに差分同期します。
+	 * ハイウォーターマーク以降の日付のうち、ローカルで変更された記録だけを登録します。
+	 * @return 登録した件数
+	 * @throws IOException
+	 */
+	public synchronized int synchronizeIncrementally() throws IOException {
+
+		SortedMap<String, Double> localValues = this.local.load(this.graphname);
+		Properties state = this.loadState();
+
+		String highWaterMark = state.getProperty(HIGH_WATER_MARK, "");
+		List<String> pushes = new ArrayList<String>();
+
+		for (Map.Entry<String, Double> entry : localValues.tailMap(highWaterMark).entrySet()) {
+			String date = entry.getKey();
+			if (checksum(date, entry.getValue()).equals(state.getProperty(date)) == false) {
+				pushes.add(date);
+			}
+		}
+
+		if (localValues.isEmpty() == false && localValues.lastKey().compareTo(highWaterMark) > 0) {
+			state.setProperty(HIGH_WATER_MARK, localValues.lastKey());
+		}
+
+		int pushed = this.push(pushes, localValues, state);
+
+		Log.info("Synchronized {0} incrementally: {1} pushed.", this.graphname, pushed);
+
+		return pushed;
+	}
+
+	/**
+	 * 値を同期先のグラフへ登録し、登録に成功した場合は同期済みとして記録します。
+	 * @param date 日付
+	 * @param value 値
+	 * @throws IOException 登録に失敗した場合
+	 */
+	private synchronized void post(Date date, double value) throws IOException {
+
+		this.remote.post(this.graphname, date, value);
+
+		String key = new SimpleDateFormat("yyyy-MM-dd").format(date);
+		Properties state = this.loadState();
+		state.setProperty(key, checksum(key, Double.valueOf(value)));
+		this.saveState(state);
+	}
+
+	/**
+	 * 指定の日付のローカルの値をまとめて登録し、同期状態を保存します。
+	 * 日付のチェックサムは登録に成功した後に記録するため、登録に失敗した日付以降は
+	 * 同期済みとならず、次回の同期で再び登録されます。
+	 * 差分同期の対象から外れないよう、ハイウォーターマークは登録していない最も古い日付まで戻します。
+	 * @param dates 昇順の日付
+	 * @param localValues
+	 * @param state
+	 * @return
+	 * @throws IOException 登録に失敗した場合
+	 */
+	private int push(List<String> dates, SortedMap<String, Double> localValues, Properties state)
+			throws IOException {
+
+		int count = 0;
+
+		try {
+			for (String date : dates) {
+				if (count > 0 && count % this.batchSize == 0) {
+					this.saveState(state);
+					try {
+						Thread.sleep(this.batchInterval);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+
+				Double value = localValues.get(date);
+				this.remote.post(this.graphname, parse(date), value.doubleValue());
+				state.setProperty(date, checksum(date, value));
+				count++;
+			}
+		} finally {
+			if (count < dates.size()
+					&& dates.get(count).compareTo(state.getProperty(HIGH_WATER_MARK, "")) < 0) {
+				state.setProperty(HIGH_WATER_MARK, dates.get(count));
+			}
+			this.saveState(state);
+		}
+
+		return count;
+	}
+
+	/**
+	 * 同期状態を読み込みます。
+	 * @return
+	 * @throws IOException
+	 */
+	private Properties loadState() throws IOException {
+
+		Properties state = new Properties();
+
+		if (this.stateFile.isFile() == false) {
+			return state;
+		}
+
+		InputStream inputStream = new BufferedInputStream(new FileInputStream(this.stateFile));
+		try {
+			state.load(inputStream);
+		} finally {
+			inputStream.close();
+		}
+
+		return state;
+	}
+
+	/**
+	 * 同期状態を保存します。
+	 * @param state
+	 * @throws IOException
+	 */
+	private void saveState(Properties state) throws IOException {
+
+		File temporary = new File(this.stateFile.getPath() + ".tmp");
+
+		OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(temporary));
+		try {
+			state.store(outputStream, this.graphname);
+		} finally {
+			outputStream.close();
+		}
+
+		if (this.stateFile.delete() || this.stateFile.exists() == false) {
+			temporary.renameTo(this.stateFile);
+		}
+	}
+
+	/**
+	 * 日付と値のチェックサムを返します。値はグラフの精度（小数点以下2桁）で比較します。
+	 * @param date
+	 * @param value
+	 * @return
+	 */
+	private static String checksum(String date, Double value) {
+
+		if (value == null) {
+			return "";
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update((date + "\t" + Math.round(value.doubleValue() * 100)).getBytes());
+
+		return Long.toHexString(crc.getValue());
+	}
+
+	/**
+	 * 日付の文字列を日時に変換します。
+	 * @param date
+	 * @return
+	 * @throws IOException
+	 */
+	private static Date parse(String date) throws IOException {
+
+		try {
+			return new SimpleDateFormat("yyyy-MM-dd").parse(date);
+		} catch (ParseException e) {
+			throw new IOException("Invalid date: " + date, e);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.binarysprite.taskbeat;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * 計測した値をチーム集計サーバーへUDPで送信する登録先です。
+ * 1パケットに「チーム名 ユーザー名 日付 値」の1行を送信します。
+ * 値は当日の通算時間のため、パケットが失われても次の送信で補われます。
+ * 
+ * @author Tabunoki
+ *
+ */
+public class TeamGraphSink implements GraphSink {
+	
+	/**
+	 * 送信文字列の文字エンコードです。
+	 */
+	public static final String ENCODING = "UTF-8";
+	
+	/**
+	 * 送信先のアドレスです。
+	 */
+	private final InetSocketAddress address;
+	
+	/**
+	 * チーム名です。
+	 */
+	private final String team;
+	
+	/**
+	 * ユーザー名です。
+	 */
+	private final String user;
+	
+	/**
+	 * 送信に使用するソケットです。
+	 */
+	private final DatagramSocket socket;
+	
+	/**
+	 * チーム集計サーバーの登録先を生成します。
+	 * @param host 送信先のホスト名
+	 * @param port 送信先のポート番号
+	 * @param team チーム名
+	 * @param user ユーザー名
+	 * @throws IOException ソケットを生成できなかった場合
+	 * @throws IllegalArgumentException チーム名もしくはユーザー名が空の場合
+	 */
+	public TeamGraphSink(String host, int port, String team, String user) throws IOException {
+		
+		if (host == null || team == null || user == null) {
+			throw new NullPointerException("host, team or user is null.");
+		}
+		if (team.trim().length() == 0 || user.trim().length() == 0) {
+			throw new IllegalArgumentException("team or user is empty.");
+		}
+		
+		this.address = new InetSocketAddress(host, port);
+		this.team = team.trim().replaceAll("\\s", "_");
+		this.user = user.trim().replaceAll("\\s", "_");
+		this.socket = new DatagramSocket();
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.binarysprite.taskbeat.GraphSink#getName()
+	 */
+	public String getName() {
+		return "team:" + this.address.getHostName() + ":" + this.address.getPort();
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.binarysprite.taskbeat.GraphSink#post(java.lang.String, java.util.Date, double)
+	 */
+	public void post(String graphname, Date date, double value) throws IOException {
+		
+		byte[] data = (this.team + " " + this.user + " " +
+				new SimpleDateFormat("yyyy-MM-dd").format(date) + " " + value + "\n").getBytes(ENCODING);
+		
+		this.socket.send(new DatagramPacket(data, data.length, this.address));
+	}
+}
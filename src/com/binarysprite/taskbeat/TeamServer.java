@@ -0,0 +1,447 @@
+package com.binarysprite.taskbeat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 多数のクライアントの通算時間をチームごとに集計するサーバーです。
+ * クライアントはUDPもしくはHTTPで「チーム名 ユーザー名 日付 値」の行を送信します。
+ * 値はユーザーの当日の通算時間（秒）で、チームの通算時間はユーザーごとの増分を
+ * ストライプ化した計数器へ加算して求めます。
+ * 通算時間は減らないため、順序が入れ替わって届いた古い値は無視します。
+ * 集計した値は一定間隔ごとに、1回あたりの件数を制限してはてなグラフへ登録します。
+ * 保持する日数より古い日付の行は受け付けません。
+ * <p>
+ * サーバーはクライアントを信頼し、認証を行いません。待ち受けるアドレスに届く行は
+ * どのユーザーの値としても受け付けるため、既定ではループバックアドレスで待ち受けます。
+ * 他のホストから受け付ける場合も、信頼できる内部のネットワークのアドレスに限ってください。
+ * <ul>
+ * <li>POST /beat … 本文の各行を受け付けます。</li>
+ * <li>GET /team/チーム名[?date=yyyy-MM-dd] … チームとユーザーごとの通算時間を返します。</li>
+ * </ul>
+ *
+ * @author Tabunoki
+ *
+ */
+public class TeamServer {
+
+	/**
+	 * 通信の文字エンコードです。
+	 */
+	public static final String ENCODING = "UTF-8";
+
+	/**
+	 * UDPパケットの最大の大きさです。
+	 */
+	private static final int MAX_PACKET = 8192;
+
+	/**
+	 * 集計を保持する日数です。これより古い日付の行は受け付けず、集計は登録後に破棄します。
+	 * 受け付けの判定と破棄の間で日付が変わっても破棄した集計が作り直されないよう、
+	 * 破棄はさらに1日遅らせます。
+	 */
+	private static final long RETENTION_DAYS = 2;
+
+	/**
+	 * 1行で受け付ける通算時間の最大値（秒）です。1日の秒数を超える値は受け付けません。
+	 */
+	private static final double MAX_SECONDS = 24 * 60 * 60;
+
+	/**
+	 * チームの1日分の集計です。
+	 * @author Tabunoki
+	 *
+	 */
+	private static class TeamTotal {
+
+		/**
+		 * チームの通算時間（ミリ秒）です。
+		 */
+		private final StripedCounter total = new StripedCounter();
+
+		/**
+		 * ユーザーごとの通算時間（ミリ秒）です。
+		 */
+		private final ConcurrentMap<String, AtomicLong> users = new ConcurrentHashMap<String, AtomicLong>();
+
+		/**
+		 * 最後にグラフへ登録した通算時間（ミリ秒）です。
+		 */
+		private long posted;
+
+		/**
+		 * 最後にグラフへの登録を試みた時間です。
+		 */
+		private long postedTime;
+	}
+
+	/**
+	 * 登録を試みた時間の古い順に並べる比較器です。
+	 */
+	private static final Comparator<Map.Entry<String, TeamTotal>> POSTED_TIME_ORDER =
+			new Comparator<Map.Entry<String, TeamTotal>>() {
+		public int compare(Map.Entry<String, TeamTotal> o1, Map.Entry<String, TeamTotal> o2) {
+			long t1 = o1.getValue().postedTime;
+			long t2 = o2.getValue().postedTime;
+			return t1 < t2 ? -1 : t1 > t2 ? 1 : 0;
+		}
+	};
+
+	/**
+	 * 「日付 TAB チーム名」をキーとする集計です。
+	 */
+	private final ConcurrentMap<String, TeamTotal> totals = new ConcurrentHashMap<String, TeamTotal>();
+
+	/**
+	 * 登録先のグラフです。
+	 */
+	private final HatenaGraph hatenaGraph;
+
+	/**
+	 * チーム名からグラフ名を作る{@link MessageFormat}形式のパターンです。
+	 */
+	private final String graphPattern;
+
+	/**
+	 * 1回の登録で送信する最大の件数です。
+	 */
+	private final int maxPosts;
+
+	/**
+	 * 登録を行うスケジューラーです。
+	 */
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+	/**
+	 * チーム集計サーバーを生成します。
+	 * @param hatenaGraph 登録先のグラフ
+	 * @param graphPattern チーム名からグラフ名を作るパターン
+	 * @param maxPosts 1回の登録で送信する最大の件数
+	 */
+	public TeamServer(HatenaGraph hatenaGraph, String graphPattern, int maxPosts) {
+
+		if (hatenaGraph == null || graphPattern == null) {
+			throw new NullPointerException("hatenaGraph or graphPattern is null.");
+		}
+
+		this.hatenaGraph = hatenaGraph;
+		this.graphPattern = graphPattern;
+		this.maxPosts = maxPosts;
+	}
+
+	/**
+	 * チーム集計サーバーを起動します。
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+
+		String graphPattern = ClockProperties.TEAM_GRAPH_NAME.get();
+
+		TeamServer server = new TeamServer(
+				new HatenaGraph(ClockProperties.USERNAME.get(), ClockProperties.PASSWORD.get()),
+				graphPattern == null || graphPattern.trim().length() == 0 ? "{0}" : graphPattern,
+				Math.max(1, ClockProperties.TEAM_SERVER_MAX_POSTS.getInt(10)));
+
+		String address = ClockProperties.TEAM_SERVER_ADDRESS.get();
+		if (address == null || address.trim().length() == 0) {
+			address = "127.0.0.1";
+		}
+
+		server.startUdp(address.trim(), ClockProperties.TEAM_SERVER_UDP_PORT.getInt(8126));
+		server.startHttp(address.trim(), ClockProperties.TEAM_SERVER_HTTP_PORT.getInt(8127));
+		server.startPosting(Math.max(1, ClockProperties.TEAM_SERVER_INTERVAL.getLong(60000)));
+	}
+
+	/**
+	 * UDPでの受信を開始します。
+	 * @param address 待ち受けるアドレス
+	 * @param port ポート番号
+	 * @throws IOException
+	 */
+	public void startUdp(String address, int port) throws IOException {
+
+		final DatagramSocket socket = new DatagramSocket(new InetSocketAddress(address, port));
+
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				byte[] buffer = new byte[MAX_PACKET];
+				DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+				while (true) {
+					try {
+						packet.setLength(buffer.length);
+						socket.receive(packet);
+						for (String line : new String(buffer, 0, packet.getLength(), ENCODING).split("\n")) {
+							beat(line);
+						}
+					} catch (IOException e) {
+						Log.error("Failed to receive a beat.", e);
+					}
+				}
+			}
+		}, "TeamServer-UDP");
+		thread.start();
+
+		Log.info("Team server is receiving beats on UDP {0}.", socket.getLocalSocketAddress());
+	}
+
+	/**
+	 * HTTPでの受信を開始します。
+	 * @param address 待ち受けるアドレス
+	 * @param port ポート番号
+	 * @throws IOException
+	 */
+	public void startHttp(String address, int port) throws IOException {
+
+		HttpServer server = HttpServer.create(new InetSocketAddress(address, port), 0);
+		server.setExecutor(Executors.newFixedThreadPool(
+				Runtime.getRuntime().availableProcessors()));
+
+		server.createContext("/beat", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				if (exchange.getRequestMethod().equals("POST") == false) {
+					respond(exchange, 405, "POST only\n");
+					return;
+				}
+				BufferedReader reader = new BufferedReader(new InputStreamReader(
+						exchange.getRequestBody(), ENCODING));
+				int count = 0;
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (beat(line)) {
+						count++;
+					}
+				}
+				respond(exchange, 200, count + "\n");
+			}
+		});
+
+		server.createContext("/team/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String team = URLDecoder.decode(
+						exchange.getRequestURI().getRawPath().substring("/team/".length()), ENCODING);
+				String query = exchange.getRequestURI().getQuery();
+				String date = query != null && query.startsWith("date=")
+						? query.substring("date=".length())
+						: new SimpleDateFormat("yyyy-MM-dd").format(new Date());
+				respond(exchange, 200, report(date, team));
+			}
+		});
+
+		server.start();
+
+		Log.info("Team server is listening on HTTP {0}.", server.getAddress());
+	}
+
+	/**
+	 * 一定間隔ごとのグラフへの登録を開始します。
+	 * @param interval 登録の間隔（ミリ秒）
+	 */
+	public void startPosting(long interval) {
+
+		this.scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					post();
+				} catch (RuntimeException e) {
+					Log.error("Failed to post team totals.", e);
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 「チーム名 ユーザー名 日付 値」の1行を集計します。
+	 * @param line 行
+	 * @return 集計した場合はtrue、行の形式や値が正しくない場合、日付が古すぎる場合はfalse
+	 */
+	public boolean beat(String line) {
+
+		String[] columns = line.trim().split("\\s+");
+		if (columns.length != 4 || columns[2].matches("[0-9]{4}-[0-9]{2}-[0-9]{2}") == false) {
+			return false;
+		}
+
+		if (columns[2].compareTo(getOldestDate(RETENTION_DAYS)) < 0) {
+			return false;
+		}
+
+		double seconds;
+		try {
+			seconds = Double.parseDouble(columns[3]);
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		if ((seconds >= 0 && seconds <= MAX_SECONDS) == false) {
+			return false;
+		}
+		long time = (long) (seconds * 1000.0d);
+
+		String key = columns[2] + "\t" + columns[0];
+		TeamTotal total = this.totals.get(key);
+		if (total == null) {
+			TeamTotal created = new TeamTotal();
+			total = this.totals.putIfAbsent(key, created);
+			if (total == null) {
+				total = created;
+			}
+		}
+
+		AtomicLong user = total.users.get(columns[1]);
+		if (user == null) {
+			AtomicLong created = new AtomicLong();
+			user = total.users.putIfAbsent(columns[1], created);
+			if (user == null) {
+				user = created;
+			}
+		}
+
+		long previous = user.get();
+		while (time > previous) {
+			if (user.compareAndSet(previous, time)) {
+				total.total.add(time - previous);
+				break;
+			}
+			previous = user.get();
+		}
+
+		return true;
+	}
+
+	/**
+	 * 前回の登録から変化したチームの通算時間を、件数を制限してグラフへ登録します。
+	 * 登録を試みた時間の古い順に登録するため、制限を超えた分は次回以降に優先して登録します。
+	 */
+	public void post() {
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		String oldest = getOldestDate(RETENTION_DAYS + 1);
+		int count = 0;
+
+		List<Map.Entry<String, TeamTotal>> changes = new ArrayList<Map.Entry<String, TeamTotal>>();
+		for (Map.Entry<String, TeamTotal> entry : this.totals.entrySet()) {
+			if (entry.getValue().total.sum() != entry.getValue().posted) {
+				changes.add(entry);
+			}
+		}
+		Collections.sort(changes, POSTED_TIME_ORDER);
+
+		for (Map.Entry<String, TeamTotal> entry : changes.subList(0, Math.min(this.maxPosts, changes.size()))) {
+			String[] key = entry.getKey().split("\t", 2);
+			TeamTotal total = entry.getValue();
+
+			long sum = total.total.sum();
+			total.postedTime = System.currentTimeMillis();
+			try {
+				this.hatenaGraph.post(MessageFormat.format(this.graphPattern, key[1]),
+						dateFormat.parse(key[0]), sum / 1000.0d);
+				total.posted = sum;
+				count++;
+			} catch (ParseException e) {
+				Log.warn("Invalid date: {0}", key[0]);
+			} catch (IOException e) {
+				Log.warn("Failed to post the total of {0}: {1}", key[1], e);
+			}
+		}
+
+		Iterator<Map.Entry<String, TeamTotal>> iterator = this.totals.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, TeamTotal> entry = iterator.next();
+			if (entry.getKey().compareTo(oldest) < 0
+					&& entry.getValue().total.sum() == entry.getValue().posted) {
+				iterator.remove();
+			}
+		}
+
+		if (count > 0) {
+			Log.info("Posted {0} team totals.", count);
+		}
+	}
+
+	/**
+	 * 指定の日数前の日付を返します。
+	 * @param days 日数
+	 * @return 日付（yyyy-MM-dd）
+	 */
+	private static String getOldestDate(long days) {
+
+		return new SimpleDateFormat("yyyy-MM-dd").format(new Date(
+				System.currentTimeMillis() - days * SharedDailyTotal.DAY));
+	}
+
+	/**
+	 * 指定の日付とチームの集計を文字列で返します。
+	 * 1行目がチームの通算時間、以降の行がユーザーごとの通算時間（秒）です。
+	 * @param date 日付（yyyy-MM-dd）
+	 * @param team チーム名
+	 * @return 集計
+	 */
+	public String report(String date, String team) {
+
+		TeamTotal total = this.totals.get(date + "\t" + team);
+		if (total == null) {
+			return team + " 0.0\n";
+		}
+
+		SortedMap<String, Long> users = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : total.users.entrySet()) {
+			users.put(entry.getKey(), entry.getValue().get());
+		}
+
+		StringBuffer buffer = new StringBuffer();
+		buffer.append(team).append(' ').append(total.total.sum() / 1000.0d).append('\n');
+		for (Map.Entry<String, Long> entry : users.entrySet()) {
+			buffer.append(entry.getKey()).append(' ').append(entry.getValue() / 1000.0d).append('\n');
+		}
+
+		return buffer.toString();
+	}
+
+	/**
+	 * HTTPの応答を返します。
+	 * @param exchange
+	 * @param status
+	 * @param body
+	 * @throws IOException
+	 */
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+
+		byte[] bytes = body.getBytes(ENCODING);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=" + ENCODING);
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream outputStream = exchange.getResponseBody();
+		try {
+			outputStream.write(bytes);
+		} finally {
+			outputStream.close();
+		}
+	}
+}
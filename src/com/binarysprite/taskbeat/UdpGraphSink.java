@@ -0,0 +1,74 @@
+package com.binarysprite.taskbeat;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * 計測した値をUDPの行プロトコル（StatsDのゲージ形式）で送信する登録先です。
+ * 1パケットに「グラフ名:値|g」の1行を送信します。
+ * ゲージは日付を持たないため、当日以外の値は送信しません。
+ * 遅れて届いた前日の値で当日のゲージが上書きされるのを防ぐためです。
+ * 
+ * @author Tabunoki
+ *
+ */
+public class UdpGraphSink implements GraphSink {
+	
+	/**
+	 * 送信文字列の文字エンコードです。
+	 */
+	public static final String ENCODING = "UTF-8";
+	
+	/**
+	 * 送信先のアドレスです。
+	 */
+	private final InetSocketAddress address;
+	
+	/**
+	 * 送信に使用するソケットです。
+	 */
+	private final DatagramSocket socket;
+	
+	/**
+	 * UDPの登録先を生成します。
+	 * @param host 送信先のホスト名
+	 * @param port 送信先のポート番号
+	 * @throws IOException ソケットを生成できなかった場合
+	 */
+	public UdpGraphSink(String host, int port) throws IOException {
+		
+		if (host == null) {
+			throw new NullPointerException("host is null.");
+		}
+		
+		this.address = new InetSocketAddress(host, port);
+		this.socket = new DatagramSocket();
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.binarysprite.taskbeat.GraphSink#getName()
+	 */
+	public String getName() {
+		return "udp:" + this.address.getHostName() + ":" + this.address.getPort();
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.binarysprite.taskbeat.GraphSink#post(java.lang.String, java.util.Date, double)
+	 */
+	public void post(String graphname, Date date, double value) throws IOException {
+		
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		if (dateFormat.format(date).equals(dateFormat.format(new Date())) == false) {
+			Log.debug("Skipped a value of {0} for {1}.", graphname, date);
+			return;
+		}
+		
+		byte[] data = (graphname.replace(' ', '_') + ":" + value + "|g\n").getBytes(ENCODING);
+		
+		this.socket.send(new DatagramPacket(data, data.length, this.address));
+	}
+}